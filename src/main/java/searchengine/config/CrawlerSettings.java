@@ -0,0 +1,22 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "crawler-settings")
+public class CrawlerSettings {
+    private boolean compactVisitedSet;
+    private int fetchConcurrency = 64;
+    private int parseThreads;
+    private int maxDepth = 50;
+    private int maxPages = 50000;
+    private int hostConcurrency = 2;
+    private long crawlDelayMs = 100;
+    private String checkpointDir = "checkpoints";
+    private int checkpointIntervalSec = 30;
+}
@@ -0,0 +1,24 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "index-storage")
+public class IndexStorageSettings {
+    /**
+     * database - индекс в таблице indexes, segments - в файлах сегментов на диске.
+     */
+    private String engine = "database";
+    private String directory = "index";
+    /**
+     * Сколько страниц копится в памяти, прежде чем будет записан новый сегмент.
+     */
+    private int flushPages = 1000;
+    private int mergeFactor = 10;
+    private int mergeMbPerSec = 20;
+}
@@ -0,0 +1,18 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "snippet-settings")
+public class SnippetSettings {
+    private int fragmentLength = 100;
+    private int maxFragmentLength = 300;
+    private int maxLength = 1000;
+    private int threads = 4;
+    private int queueCapacity = 64;
+}
@@ -0,0 +1,18 @@
+package searchengine.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties(prefix = "writer-settings")
+public class WriterSettings {
+    private int batchSize = 500;
+    private int threads = 2;
+    private int queueCapacity = 1000;
+    private int flushSize = 200;
+    private long flushIntervalMs = 1000;
+}
@@ -24,8 +24,9 @@ public class ApiController {
     }
 
     @GetMapping("/startIndexing")
-    public ResponseEntity<IndexingResponse> startIndexing() {
-        return ResponseEntity.ok(indexingService.startIndexing());
+    public ResponseEntity<IndexingResponse> startIndexing(
+            @RequestParam(required = false, defaultValue = "false") final boolean incremental) {
+        return ResponseEntity.ok(indexingService.startIndexing(incremental));
     }
 
     @GetMapping("/stopIndexing")
@@ -0,0 +1,11 @@
+package searchengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class LemmaFrequency {
+    private String lemma;
+    private long frequency;
+}
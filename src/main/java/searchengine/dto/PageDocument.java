@@ -0,0 +1,20 @@
+package searchengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Поля страницы, которые нужны для выдачи результата поиска, без HTML.
+ */
+@Data
+@AllArgsConstructor
+public class PageDocument {
+    private int id;
+    private int siteId;
+    private String siteUrl;
+    private String siteName;
+    private String path;
+    private String title;
+    private String text;
+    private String description;
+}
@@ -0,0 +1,11 @@
+package searchengine.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class Posting {
+    private int pageId;
+    private float rank;
+}
@@ -0,0 +1,21 @@
+package searchengine.model;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+import searchengine.utils.ContentCompressor;
+
+/**
+ * Хранит текстовое поле сущности в сжатом виде ({@link ContentCompressor}) в двоичной колонке.
+ */
+@Converter
+public class CompressedTextConverter implements AttributeConverter<String, byte[]> {
+    @Override
+    public byte[] convertToDatabaseColumn(String attribute) {
+        return ContentCompressor.compress(attribute);
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] dbData) {
+        return ContentCompressor.decompress(dbData);
+    }
+}
@@ -7,7 +7,9 @@ import org.hibernate.annotations.OnDeleteAction;
 
 @Entity
 @Data
-@Table(name = "lemmas")
+@Table(name = "lemmas", indexes = {
+        @Index(name = "site_lemma_index", columnList = "site_id, lemma", unique = true),
+        @Index(name = "lemma_index", columnList = "lemma")})
 public class LemmaEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -18,9 +20,9 @@ public class LemmaEntity {
     @OnDelete(action = OnDeleteAction.CASCADE)
     private SiteEntity siteID;
 
-    @Column(nullable = false, columnDefinition = "varchar(255)")
+    @Column(nullable = false, columnDefinition = "varchar(255) collate utf8mb4_bin")
     private String lemma;
 
     @Column(nullable = false)
     private int frequency;
-}
\ No newline at end of file
+}
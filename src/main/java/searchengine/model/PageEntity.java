@@ -7,7 +7,7 @@ import org.hibernate.annotations.OnDeleteAction;
 
 @Entity
 @Data
-@Table(name = "pages", indexes = @Index(name = "path_index", columnList = "path", unique = true))
+@Table(name = "pages", indexes = @Index(name = "site_path_index", columnList = "site_id, path", unique = true))
 public class PageEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -18,12 +18,44 @@ public class PageEntity {
     @OnDelete(action = OnDeleteAction.CASCADE)
     private SiteEntity siteID;
 
-    @Column(nullable = false, columnDefinition = "varchar(255)", unique = true)
+    @Column(nullable = false, columnDefinition = "varchar(255)")
     private String path;
 
     @Column(nullable = false)
     private int code;
 
-    @Column(nullable = false, columnDefinition = "mediumtext")
+    /**
+     * HTML страницы, в базе хранится сжатым.
+     */
+    @Column(nullable = false, columnDefinition = "mediumblob")
+    @Convert(converter = CompressedTextConverter.class)
     private String content;
+
+    @Column(columnDefinition = "varchar(512)")
+    private String title;
+
+    /**
+     * Текст страницы без разметки; смещения в позициях лемм указывают на него.
+     */
+    @Column(name = "plain_text", columnDefinition = "mediumblob")
+    @Convert(converter = CompressedTextConverter.class)
+    private String text;
+
+    @Column(columnDefinition = "varchar(512)")
+    private String description;
+
+    /**
+     * Число проиндексированных слов страницы, длина документа для BM25.
+     */
+    @Column(name = "word_count")
+    private Integer wordCount;
+
+    @Column(columnDefinition = "varchar(255)")
+    private String etag;
+
+    @Column(name = "last_modified", columnDefinition = "varchar(64)")
+    private String lastModified;
+
+    @Column(name = "content_hash", columnDefinition = "char(64)")
+    private String contentHash;
 }
\ No newline at end of file
@@ -7,7 +7,7 @@ import org.hibernate.annotations.OnDelete;
 
 @Entity
 @Data
-@Table(name = "indexes")
+@Table(name = "indexes", indexes = @Index(name = "lemma_page_index", columnList = "lemma_id, page_id"))
 public class SearchIndex {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -25,4 +25,10 @@ public class SearchIndex {
 
     @Column(name = "search_rank", nullable = false)
     private float rank;
+
+    /**
+     * Вхождения леммы на странице в формате {@link searchengine.utils.PostingCodec#encodePositions}.
+     */
+    @Column(name = "positions", columnDefinition = "mediumblob")
+    private byte[] positions;
 }
\ No newline at end of file
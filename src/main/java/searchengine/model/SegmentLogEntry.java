@@ -0,0 +1,29 @@
+package searchengine.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * Журнал изменений индекса в сегментах, которые еще не записаны на диск. Записывается в той же
+ * транзакции, что и страницы, и очищается после записи сегмента, поэтому после сбоя
+ * по нему восстанавливаются страницы, которые уже есть в базе, но не попали в сегменты.
+ */
+@Entity
+@Data
+@Table(name = "segment_log", indexes = @Index(name = "segment_log_site_index", columnList = "site_id"))
+public class SegmentLogEntry {
+    @Id
+    private int id;
+
+    @Column(name = "site_id", nullable = false)
+    private int siteId;
+
+    @Column(name = "page_id", nullable = false)
+    private int pageId;
+
+    /**
+     * Леммы страницы с рангами и позициями; null, если страница удалена.
+     */
+    @Column(name = "entry", columnDefinition = "mediumblob")
+    private byte[] entry;
+}
@@ -27,4 +27,10 @@ public class SiteEntity {
 
     @Column(updatable = false, columnDefinition = "varchar(255)")
     private String name;
+
+    /**
+     * Новое поколение индекса сайта, которое строится, пока поиск работает по текущему.
+     */
+    @Column(nullable = false, columnDefinition = "bit not null default 0")
+    private boolean shadow;
 }
\ No newline at end of file
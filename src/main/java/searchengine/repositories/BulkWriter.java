@@ -0,0 +1,273 @@
+package searchengine.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import searchengine.config.WriterSettings;
+import searchengine.model.LemmaEntity;
+import searchengine.model.PageEntity;
+import searchengine.model.SearchIndex;
+import searchengine.model.SegmentLogEntry;
+import searchengine.model.SiteEntity;
+import searchengine.utils.ContentCompressor;
+import searchengine.utils.PageStatistics;
+import searchengine.utils.PostingCodec;
+import searchengine.utils.TermPositions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Repository
+@RequiredArgsConstructor
+public class BulkWriter {
+    private static final String INSERT_PAGE = "insert into pages " +
+            "(id, site_id, path, code, content, etag, last_modified, content_hash, title, plain_text, description, " +
+            "word_count) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_PAGE = "update pages set code = ?, content = ?, etag = ?, last_modified = ?, " +
+            "content_hash = ?, title = ?, plain_text = ?, description = ?, word_count = ? where id = ?";
+    private static final String INSERT_LEMMA =
+            "insert into lemmas (id, site_id, lemma, frequency) values (?, ?, ?, 0) " +
+            "on duplicate key update frequency = frequency";
+    private static final String UPDATE_FREQUENCY = "update lemmas set frequency = frequency + ? where id = ?";
+    private static final String INSERT_INDEX =
+            "insert into indexes (id, page_id, lemma_id, search_rank, positions) values (?, ?, ?, ?, ?)";
+    private static final String INSERT_SEGMENT_LOG =
+            "insert into segment_log (id, site_id, page_id, entry) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final WriterSettings writerSettings;
+    private final PageStatistics pageStatistics;
+    private final Map<String, AtomicInteger> lastIds = new ConcurrentHashMap<>();
+
+    public void insertPages(List<PageEntity> pages) {
+        int id = allocateIds("pages", pages.size());
+        for (PageEntity page : pages) {
+            page.setId(id++);
+        }
+        jdbcTemplate.batchUpdate(INSERT_PAGE, pages, writerSettings.getBatchSize(), (statement, page) -> {
+            statement.setInt(1, page.getId());
+            statement.setInt(2, page.getSiteID().getId());
+            statement.setString(3, page.getPath());
+            statement.setInt(4, page.getCode());
+            statement.setBytes(5, ContentCompressor.compress(page.getContent()));
+            statement.setString(6, page.getEtag());
+            statement.setString(7, page.getLastModified());
+            statement.setString(8, page.getContentHash());
+            statement.setString(9, page.getTitle());
+            statement.setBytes(10, ContentCompressor.compress(page.getText()));
+            statement.setString(11, page.getDescription());
+            statement.setObject(12, page.getWordCount());
+        });
+        updateStatistics(pages);
+    }
+
+    public void updatePages(List<PageEntity> pages) {
+        jdbcTemplate.batchUpdate(UPDATE_PAGE, pages, writerSettings.getBatchSize(), (statement, page) -> {
+            statement.setInt(1, page.getCode());
+            statement.setBytes(2, ContentCompressor.compress(page.getContent()));
+            statement.setString(3, page.getEtag());
+            statement.setString(4, page.getLastModified());
+            statement.setString(5, page.getContentHash());
+            statement.setString(6, page.getTitle());
+            statement.setBytes(7, ContentCompressor.compress(page.getText()));
+            statement.setString(8, page.getDescription());
+            statement.setObject(9, page.getWordCount());
+            statement.setInt(10, page.getId());
+        });
+        updateStatistics(pages);
+    }
+
+    /**
+     * Статистика BM25 меняется только после фиксации транзакции, иначе откаченные страницы
+     * (и их идентификаторы, которые повторная попытка выдает заново) остались бы в ней.
+     */
+    private void updateStatistics(List<PageEntity> pages) {
+        int[][] rows = new int[pages.size()][];
+        for (int i = 0; i < pages.size(); i++) {
+            PageEntity page = pages.get(i);
+            int wordCount = page.getWordCount() != null ? page.getWordCount() : 0;
+            rows[i] = new int[]{page.getSiteID().getId(), page.getId(), wordCount};
+        }
+        AfterCommit.run(() -> {
+            for (int[] row : rows) {
+                pageStatistics.put(row[0], row[1], row[2]);
+            }
+        });
+    }
+
+    public List<Integer> findLemmaIdsByPages(Collection<Integer> pageIds) {
+        List<Integer> lemmaIds = new ArrayList<>();
+        for (String ids : joinIds(pageIds)) {
+            lemmaIds.addAll(jdbcTemplate.queryForList(
+                    "select lemma_id from indexes where page_id in (" + ids + ")", Integer.class));
+        }
+        return lemmaIds;
+    }
+
+    /**
+     * Вхождения лемм на страницах: страница - лемма - позиции. Записи без позиций пропускаются.
+     */
+    public Map<Integer, Map<Integer, TermPositions>> findPositions(Collection<Integer> pageIds,
+                                                                  Collection<Integer> lemmaIds) {
+        Map<Integer, Map<Integer, TermPositions>> positions = new HashMap<>();
+        if (lemmaIds.isEmpty()) {
+            return positions;
+        }
+        String lemmaIdList = String.join(",", joinIds(lemmaIds));
+        for (String ids : joinIds(pageIds)) {
+            jdbcTemplate.query("select page_id, lemma_id, positions from indexes where page_id in (" + ids
+                    + ") and lemma_id in (" + lemmaIdList + ") and positions is not null", resultSet -> {
+                positions.computeIfAbsent(resultSet.getInt(1), pageId -> new HashMap<>())
+                        .put(resultSet.getInt(2), PostingCodec.decodePositions(resultSet.getBytes(3)));
+            });
+        }
+        return positions;
+    }
+
+    public void deleteIndexesByPages(Collection<Integer> pageIds) {
+        for (String ids : joinIds(pageIds)) {
+            jdbcTemplate.update("delete from indexes where page_id in (" + ids + ")");
+        }
+    }
+
+    public void deletePages(Collection<Integer> pageIds) {
+        for (String ids : joinIds(pageIds)) {
+            jdbcTemplate.update("delete from pages where id in (" + ids + ")");
+        }
+        List<Integer> deletedPageIds = List.copyOf(pageIds);
+        AfterCommit.run(() -> pageStatistics.remove(deletedPageIds));
+    }
+
+    public void deleteSiteIndexes(SiteEntity site) {
+        jdbcTemplate.update("delete i from indexes i join pages p on p.id = i.page_id where p.site_id = ?",
+                site.getId());
+    }
+
+    /**
+     * Удаляет страницы, леммы и сам сайт запросами по site_id, не загружая сущности.
+     */
+    public void deleteSite(SiteEntity site) {
+        jdbcTemplate.update("delete from pages where site_id = ?", site.getId());
+        jdbcTemplate.update("delete from lemmas where site_id = ?", site.getId());
+        jdbcTemplate.update("delete from sites where id = ?", site.getId());
+        int siteId = site.getId();
+        AfterCommit.run(() -> pageStatistics.removeSite(siteId));
+    }
+
+    /**
+     * Одним запросом делает новое поколение сайта текущим, а старое переводит в теневые.
+     */
+    public void swapGenerations(SiteEntity replaced, SiteEntity shadow) {
+        jdbcTemplate.update("update sites set shadow = (id = ?) where id in (?, ?)",
+                replaced.getId(), replaced.getId(), shadow.getId());
+    }
+
+    public void deleteUnusedLemmas(SiteEntity site) {
+        jdbcTemplate.update("delete from lemmas where site_id = ? and frequency <= 0", site.getId());
+    }
+
+    public void deleteUnusedLemmas(Collection<Integer> lemmaIds) {
+        for (String ids : joinIds(lemmaIds)) {
+            jdbcTemplate.update("delete from lemmas where frequency <= 0 and id in (" + ids + ")");
+        }
+    }
+
+    public void insertLemmas(SiteEntity site, Collection<String> lemmas) {
+        List<String> lemmaList = new ArrayList<>(lemmas);
+        int firstId = allocateIds("lemmas", lemmaList.size());
+        AtomicInteger id = new AtomicInteger(firstId);
+        jdbcTemplate.batchUpdate(INSERT_LEMMA, lemmaList, writerSettings.getBatchSize(), (statement, lemma) -> {
+            statement.setInt(1, id.getAndIncrement());
+            statement.setInt(2, site.getId());
+            statement.setString(3, lemma);
+        });
+    }
+
+    public void updateLemmaFrequencies(Map<Integer, Integer> deltas) {
+        List<Map.Entry<Integer, Integer>> entries = new ArrayList<>(deltas.entrySet());
+        jdbcTemplate.batchUpdate(UPDATE_FREQUENCY, entries, writerSettings.getBatchSize(), (statement, entry) -> {
+            statement.setInt(1, entry.getValue());
+            statement.setInt(2, entry.getKey());
+        });
+    }
+
+    public void insertIndexes(List<SearchIndex> indexes) {
+        int id = allocateIds("indexes", indexes.size());
+        for (SearchIndex index : indexes) {
+            index.setId(id++);
+        }
+        jdbcTemplate.batchUpdate(INSERT_INDEX, indexes, writerSettings.getBatchSize(), (statement, index) -> {
+            statement.setInt(1, index.getId());
+            statement.setInt(2, index.getPageID().getId());
+            statement.setInt(3, index.getLemmaID().getId());
+            statement.setFloat(4, index.getRank());
+            statement.setBytes(5, index.getPositions());
+        });
+    }
+
+    public void insertSegmentLog(List<SegmentLogEntry> entries) {
+        int id = allocateIds("segment_log", entries.size());
+        for (SegmentLogEntry entry : entries) {
+            entry.setId(id++);
+        }
+        jdbcTemplate.batchUpdate(INSERT_SEGMENT_LOG, entries, writerSettings.getBatchSize(), (statement, entry) -> {
+            statement.setInt(1, entry.getId());
+            statement.setInt(2, entry.getSiteId());
+            statement.setInt(3, entry.getPageId());
+            statement.setBytes(4, entry.getEntry());
+        });
+    }
+
+    public List<SegmentLogEntry> findSegmentLog() {
+        return jdbcTemplate.query("select id, site_id, page_id, entry from segment_log order by id", (rs, rowNum) -> {
+            SegmentLogEntry entry = new SegmentLogEntry();
+            entry.setId(rs.getInt(1));
+            entry.setSiteId(rs.getInt(2));
+            entry.setPageId(rs.getInt(3));
+            entry.setEntry(rs.getBytes(4));
+            return entry;
+        });
+    }
+
+    public void deleteSegmentLog(Collection<Integer> ids) {
+        for (String chunk : joinIds(ids)) {
+            jdbcTemplate.update("delete from segment_log where id in (" + chunk + ")");
+        }
+    }
+
+    public void deleteSegmentLog(SiteEntity site) {
+        jdbcTemplate.update("delete from segment_log where site_id = ?", site.getId());
+    }
+
+    private List<String> joinIds(Collection<Integer> ids) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder chunk = new StringBuilder();
+        int count = 0;
+        for (Integer id : ids) {
+            if (count > 0) {
+                chunk.append(',');
+            }
+            chunk.append(id.intValue());
+            if (++count == writerSettings.getBatchSize()) {
+                chunks.add(chunk.toString());
+                chunk.setLength(0);
+                count = 0;
+            }
+        }
+        if (count > 0) {
+            chunks.add(chunk.toString());
+        }
+        return chunks;
+    }
+
+    private int allocateIds(String table, int count) {
+        AtomicInteger lastId = lastIds.computeIfAbsent(table, name -> new AtomicInteger(
+                jdbcTemplate.queryForObject("select coalesce(max(id), 0) from " + name, Integer.class)));
+        return lastId.getAndAdd(count) + 1;
+    }
+}
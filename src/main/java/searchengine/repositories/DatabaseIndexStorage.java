@@ -0,0 +1,59 @@
+package searchengine.repositories;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import searchengine.model.LemmaEntity;
+import searchengine.model.SearchIndex;
+import searchengine.model.SiteEntity;
+import searchengine.utils.PostingCursor;
+import searchengine.utils.PostingList;
+import searchengine.utils.TermPositions;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "index-storage", name = "engine", havingValue = "database", matchIfMissing = true)
+public class DatabaseIndexStorage implements IndexStorage {
+    private final IndexRepository indexRepository;
+    private final BulkWriter bulkWriter;
+
+    @Override
+    public PostingCursor findPostings(LemmaEntity lemma) {
+        return PostingList.of(lemma.getLemma(), indexRepository.findPostings(lemma)).cursor();
+    }
+
+    @Override
+    public void insertIndexes(List<SearchIndex> indexes) {
+        bulkWriter.insertIndexes(indexes);
+    }
+
+    @Override
+    public List<Integer> findLemmaIdsByPages(SiteEntity site, Collection<Integer> pageIds) {
+        return bulkWriter.findLemmaIdsByPages(pageIds);
+    }
+
+    @Override
+    public Map<Integer, Map<Integer, TermPositions>> findPositions(SiteEntity site, Collection<Integer> pageIds,
+                                                                  Collection<Integer> lemmaIds) {
+        return bulkWriter.findPositions(pageIds, lemmaIds);
+    }
+
+    @Override
+    public void deleteIndexesByPages(SiteEntity site, Collection<Integer> pageIds) {
+        bulkWriter.deleteIndexesByPages(pageIds);
+    }
+
+    @Override
+    public void commit(SiteEntity site) {
+        // записи становятся видны вместе с транзакцией, в которой они сделаны
+    }
+
+    @Override
+    public void deleteSite(SiteEntity site) {
+        bulkWriter.deleteSiteIndexes(site);
+    }
+}
@@ -1,14 +1,17 @@
 package searchengine.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
-import searchengine.model.PageEntity;
+import searchengine.dto.Posting;
+import searchengine.model.LemmaEntity;
 import searchengine.model.SearchIndex;
-import searchengine.model.SiteEntity;
-import java.util.ArrayList;
+import java.util.List;
 
 @Repository
 public interface IndexRepository extends JpaRepository<SearchIndex, Integer> {
-    ArrayList<SearchIndex> findByLemmaID_LemmaAndPageID_SiteID(String lemma, SiteEntity site);
-    ArrayList<SearchIndex> findByPageIDAndLemmaID_Lemma(PageEntity page, String lemma);
-}
\ No newline at end of file
+    @Query("select new searchengine.dto.Posting(i.pageID.id, i.rank) from SearchIndex i " +
+            "where i.lemmaID = :lemma order by i.pageID.id")
+    List<Posting> findPostings(@Param("lemma") LemmaEntity lemma);
+}
@@ -0,0 +1,39 @@
+package searchengine.repositories;
+
+import searchengine.model.LemmaEntity;
+import searchengine.model.SearchIndex;
+import searchengine.model.SiteEntity;
+import searchengine.utils.PostingCursor;
+import searchengine.utils.TermPositions;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хранилище обратного индекса. Сайты, страницы и леммы всегда лежат в базе,
+ * а списки страниц по леммам - в выбранной реализации.
+ */
+public interface IndexStorage {
+    PostingCursor findPostings(LemmaEntity lemma);
+
+    void insertIndexes(List<SearchIndex> indexes);
+
+    List<Integer> findLemmaIdsByPages(SiteEntity site, Collection<Integer> pageIds);
+
+    /**
+     * Вхождения лемм lemmaIds на страницах pageIds: страница - лемма - позиции.
+     * Страницы и леммы без записанных позиций в результат не попадают.
+     */
+    Map<Integer, Map<Integer, TermPositions>> findPositions(SiteEntity site, Collection<Integer> pageIds,
+                                                           Collection<Integer> lemmaIds);
+
+    void deleteIndexesByPages(SiteEntity site, Collection<Integer> pageIds);
+
+    /**
+     * Делает записанные изменения сайта видимыми для поиска и сохраняет их.
+     */
+    void commit(SiteEntity site);
+
+    void deleteSite(SiteEntity site);
+}
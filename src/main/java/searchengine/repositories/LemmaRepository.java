@@ -1,11 +1,22 @@
 package searchengine.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import searchengine.dto.LemmaFrequency;
 import searchengine.model.LemmaEntity;
-import java.util.ArrayList;
+import searchengine.model.SiteEntity;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public interface LemmaRepository extends JpaRepository<LemmaEntity, Integer> {
-    ArrayList<LemmaEntity> findLemmaEntitiesByLemma(String lemma);
-}
\ No newline at end of file
+    List<LemmaEntity> findBySiteIDAndLemmaIn(SiteEntity site, Collection<String> lemmas);
+
+    long countBySiteID(SiteEntity site);
+
+    @Query("select new searchengine.dto.LemmaFrequency(l.lemma, sum(l.frequency)) from LemmaEntity l " +
+            "where l.lemma in :lemmas and l.siteID.shadow = false group by l.lemma")
+    List<LemmaFrequency> sumFrequencies(@Param("lemmas") Collection<String> lemmas);
+}
@@ -1,9 +1,31 @@
 package searchengine.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import searchengine.dto.PageDocument;
+import searchengine.dto.PageValidators;
 import searchengine.model.PageEntity;
+import searchengine.model.SiteEntity;
+import java.util.Collection;
+import java.util.List;
 
 @Repository
 public interface PageRepository extends JpaRepository<PageEntity, Integer> {
-}
\ No newline at end of file
+    @Query("select new searchengine.dto.PageValidators(p.id, p.path, p.etag, p.lastModified, p.contentHash) " +
+            "from PageEntity p where p.siteID = :site")
+    List<PageValidators> findValidators(@Param("site") SiteEntity site);
+
+    @Query("select new searchengine.dto.PageDocument(p.id, s.id, s.url, s.name, p.path, p.title, p.text, " +
+            "p.description) from PageEntity p join p.siteID s where p.id in :ids")
+    List<PageDocument> findDocuments(@Param("ids") Collection<Integer> ids);
+
+    @Query("select p.content from PageEntity p where p.id = :id")
+    String findContentById(@Param("id") int id);
+
+    @Query("select p.id from PageEntity p where p.siteID = :site and p.path = :path")
+    Integer findIdBySiteAndPath(@Param("site") SiteEntity site, @Param("path") String path);
+
+    long countBySiteID(SiteEntity site);
+}
@@ -0,0 +1,293 @@
+package searchengine.repositories;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+import searchengine.config.IndexStorageSettings;
+import searchengine.model.LemmaEntity;
+import searchengine.model.SearchIndex;
+import searchengine.model.SegmentLogEntry;
+import searchengine.model.SiteEntity;
+import searchengine.utils.PostingCursor;
+import searchengine.utils.PostingList;
+import searchengine.utils.SiteSegments;
+import searchengine.utils.TermPositions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Индекс каждого сайта хранится в собственном каталоге набором сегментов ({@link SiteSegments}).
+ * Слияние сегментов выполняется в отдельном фоновом потоке. Изменения, которые еще копятся в памяти,
+ * дублируются в журнал {@link SegmentLogEntry} в транзакции страниц; при первом обращении после
+ * перезапуска журнал переносится в сегменты.
+ */
+@Repository
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "index-storage", name = "engine", havingValue = "segments")
+public class SegmentIndexStorage implements IndexStorage {
+    private static final String SITE_PREFIX = "site-";
+
+    private final IndexStorageSettings settings;
+    private final BulkWriter bulkWriter;
+    private final Map<Integer, SiteSegments> sites = new ConcurrentHashMap<>();
+    private ExecutorService merger;
+    private volatile boolean recovered;
+
+    @PostConstruct
+    public void load() throws IOException {
+        merger = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-merger");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        Path directory = Path.of(settings.getDirectory());
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> siteDirectories = Files.newDirectoryStream(directory, SITE_PREFIX + "*")) {
+            for (Path siteDirectory : siteDirectories) {
+                int siteId = Integer.parseInt(siteDirectory.getFileName().toString().substring(SITE_PREFIX.length()));
+                scheduleMerge(siteId, siteSegments(siteId));
+            }
+        }
+        System.out.println("Загружены сегменты индекса сайтов: " + sites.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        merger.shutdownNow();
+    }
+
+    @Override
+    public PostingCursor findPostings(LemmaEntity lemma) {
+        ensureRecovered();
+        SiteSegments siteSegments = sites.get(lemma.getSiteID().getId());
+        if (siteSegments == null) {
+            return new PostingList(lemma.getLemma(), new int[0], new float[0]).cursor();
+        }
+        return siteSegments.postings(lemma.getId());
+    }
+
+    @Override
+    public void insertIndexes(List<SearchIndex> indexes) {
+        ensureRecovered();
+        Map<Integer, List<SearchIndex>> indexesByPage = new LinkedHashMap<>();
+        for (SearchIndex index : indexes) {
+            indexesByPage.computeIfAbsent(index.getPageID().getId(), pageId -> new ArrayList<>()).add(index);
+        }
+        List<SegmentLogEntry> entries = new ArrayList<>();
+        indexesByPage.forEach((pageId, pageIndexes) -> {
+            int[] lemmaIds = new int[pageIndexes.size()];
+            float[] ranks = new float[pageIndexes.size()];
+            byte[][] positions = new byte[pageIndexes.size()][];
+            for (int i = 0; i < pageIndexes.size(); i++) {
+                lemmaIds[i] = pageIndexes.get(i).getLemmaID().getId();
+                ranks[i] = pageIndexes.get(i).getRank();
+                positions[i] = pageIndexes.get(i).getPositions();
+            }
+            SegmentLogEntry entry = new SegmentLogEntry();
+            entry.setSiteId(pageIndexes.get(0).getPageID().getSiteID().getId());
+            entry.setPageId(pageId);
+            entry.setEntry(encodeEntry(lemmaIds, ranks, positions));
+            entries.add(entry);
+        });
+        if (entries.isEmpty()) {
+            return;
+        }
+        bulkWriter.insertSegmentLog(entries);
+        AfterCommit.run(() -> entries.forEach(entry -> apply(entry, false)));
+    }
+
+    @Override
+    public List<Integer> findLemmaIdsByPages(SiteEntity site, Collection<Integer> pageIds) {
+        ensureRecovered();
+        return siteSegments(site.getId()).findLemmaIds(pageIds);
+    }
+
+    @Override
+    public Map<Integer, Map<Integer, TermPositions>> findPositions(SiteEntity site, Collection<Integer> pageIds,
+                                                                  Collection<Integer> lemmaIds) {
+        ensureRecovered();
+        SiteSegments siteSegments = sites.get(site.getId());
+        return siteSegments == null ? new HashMap<>() : siteSegments.findPositions(pageIds, lemmaIds);
+    }
+
+    @Override
+    public void deleteIndexesByPages(SiteEntity site, Collection<Integer> pageIds) {
+        ensureRecovered();
+        List<SegmentLogEntry> entries = new ArrayList<>();
+        for (Integer pageId : pageIds) {
+            SegmentLogEntry entry = new SegmentLogEntry();
+            entry.setSiteId(site.getId());
+            entry.setPageId(pageId);
+            entries.add(entry);
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        bulkWriter.insertSegmentLog(entries);
+        AfterCommit.run(() -> entries.forEach(entry -> apply(entry, false)));
+    }
+
+    @Override
+    public void commit(SiteEntity site) {
+        ensureRecovered();
+        SiteSegments siteSegments = siteSegments(site.getId());
+        try {
+            if (siteSegments.flush()) {
+                scheduleMerge(site.getId(), siteSegments);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать сегмент сайта " + site.getUrl(), e);
+        }
+        bulkWriter.deleteSegmentLog(siteSegments.takeFlushedLogIds());
+    }
+
+    @Override
+    public void deleteSite(SiteEntity site) {
+        ensureRecovered();
+        bulkWriter.deleteSegmentLog(site);
+        SiteSegments siteSegments = sites.remove(site.getId());
+        try {
+            if (siteSegments != null) {
+                siteSegments.deleteFiles();
+            } else if (Files.exists(siteDirectory(site.getId()))) {
+                new SiteSegments(siteDirectory(site.getId()), settings.getFlushPages(), settings.getMergeFactor())
+                        .deleteFiles();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось удалить сегменты сайта " + site.getUrl(), e);
+        }
+    }
+
+    private void scheduleMerge(int siteId, SiteSegments siteSegments) {
+        merger.execute(() -> {
+            if (sites.get(siteId) != siteSegments) {
+                return;
+            }
+            try {
+                siteSegments.mergeSegments(settings.getMergeMbPerSec() * 1024L * 1024L);
+            } catch (IOException e) {
+                System.out.println("Ошибка слияния сегментов " + siteSegments.getDirectory() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Переносит в сегменты журнал, оставшийся после остановки: страницы, которые уже есть в базе,
+     * но не успели попасть в сегмент. Каждая запись сначала удаляет прежнюю версию страницы,
+     * поэтому записи, уже попавшие в сегменты до сбоя, применяются повторно без дублей.
+     */
+    private void ensureRecovered() {
+        if (recovered) {
+            return;
+        }
+        synchronized (this) {
+            if (recovered) {
+                return;
+            }
+            List<SegmentLogEntry> entries = bulkWriter.findSegmentLog();
+            Set<Integer> siteIds = new TreeSet<>();
+            for (SegmentLogEntry entry : entries) {
+                apply(entry, true);
+                siteIds.add(entry.getSiteId());
+            }
+            for (int siteId : siteIds) {
+                SiteSegments siteSegments = siteSegments(siteId);
+                try {
+                    siteSegments.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Не удалось записать сегмент сайта " + siteId, e);
+                }
+                bulkWriter.deleteSegmentLog(siteSegments.takeFlushedLogIds());
+            }
+            if (!entries.isEmpty()) {
+                System.out.println("Из журнала сегментов восстановлено изменений страниц: " + entries.size());
+            }
+            recovered = true;
+        }
+    }
+
+    /**
+     * replay - запись переносится из журнала после перезапуска, и версия страницы в сегментах могла
+     * уже устареть, поэтому она удаляется перед добавлением.
+     */
+    private void apply(SegmentLogEntry entry, boolean replay) {
+        SiteSegments siteSegments = siteSegments(entry.getSiteId());
+        if (entry.getEntry() == null) {
+            siteSegments.delete(List.of(entry.getPageId()), List.of(entry.getId()));
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(entry.getEntry());
+        int count = buffer.getInt();
+        int[] lemmaIds = new int[count];
+        float[] ranks = new float[count];
+        byte[][] positions = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            lemmaIds[i] = buffer.getInt();
+            ranks[i] = buffer.getFloat();
+            int length = buffer.getInt();
+            if (length >= 0) {
+                positions[i] = new byte[length];
+                buffer.get(positions[i]);
+            }
+        }
+        try {
+            if (replay) {
+                siteSegments.delete(List.of(entry.getPageId()), List.of());
+            }
+            if (siteSegments.add(entry.getPageId(), lemmaIds, ranks, positions, entry.getId())) {
+                scheduleMerge(entry.getSiteId(), siteSegments);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось записать сегмент сайта " + entry.getSiteId(), e);
+        }
+    }
+
+    /**
+     * int число лемм, затем для каждой: int id леммы, float ранг, int длина позиций (-1 - нет) и позиции.
+     */
+    private static byte[] encodeEntry(int[] lemmaIds, float[] ranks, byte[][] positions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(lemmaIds.length * 16 + 4);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(lemmaIds.length);
+            for (int i = 0; i < lemmaIds.length; i++) {
+                out.writeInt(lemmaIds[i]);
+                out.writeFloat(ranks[i]);
+                out.writeInt(positions[i] != null ? positions[i].length : -1);
+                if (positions[i] != null) {
+                    out.write(positions[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private SiteSegments siteSegments(int siteId) {
+        return sites.computeIfAbsent(siteId, id -> {
+            try {
+                return new SiteSegments(siteDirectory(id), settings.getFlushPages(), settings.getMergeFactor());
+            } catch (IOException e) {
+                throw new UncheckedIOException("Не удалось открыть сегменты сайта " + id, e);
+            }
+        });
+    }
+
+    private Path siteDirectory(int siteId) {
+        return Path.of(settings.getDirectory(), SITE_PREFIX + siteId);
+    }
+}
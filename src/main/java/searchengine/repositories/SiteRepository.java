@@ -6,5 +6,5 @@ import searchengine.model.SiteEntity;
 
 @Repository
 public interface SiteRepository extends JpaRepository<SiteEntity, Integer> {
-    SiteEntity findSiteEntityByUrl(String url);
+    SiteEntity findSiteEntityByUrlAndShadow(String url, boolean shadow);
 }
\ No newline at end of file
@@ -3,7 +3,7 @@ package searchengine.services;
 import searchengine.dto.IndexingResponse;
 
 public interface IndexingService {
-    IndexingResponse startIndexing();
+    IndexingResponse startIndexing(boolean incremental);
     IndexingResponse stopIndexing();
     IndexingResponse indexPage(String url);
 }
\ No newline at end of file
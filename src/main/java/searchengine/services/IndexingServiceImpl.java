@@ -1,45 +1,77 @@
 package searchengine.services;
 
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.CrawlerSettings;
 import searchengine.config.Site;
 import searchengine.config.SitesList;
 import searchengine.dto.IndexingResponse;
 import searchengine.model.SiteEntity;
 import searchengine.model.Status;
+import searchengine.repositories.BulkWriter;
+import searchengine.repositories.IndexStorage;
 import searchengine.repositories.LemmaRepository;
 import searchengine.repositories.PageRepository;
-import searchengine.repositories.IndexRepository;
 import searchengine.repositories.SiteRepository;
+import searchengine.utils.CrawlCheckpoint;
+import searchengine.utils.CrawlFrontier;
+import searchengine.utils.CrawlPipeline;
+import searchengine.utils.KnownPages;
+import searchengine.utils.LemmaDictionary;
+import searchengine.utils.Lemmatization;
 import searchengine.utils.PageParser;
+import searchengine.utils.PageWriteBuffer;
 import searchengine.utils.SiteParser;
+import searchengine.utils.VisitedUrlSet;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
-import java.util.concurrent.ForkJoinPool;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 public class IndexingServiceImpl implements IndexingService {
     private final SitesList sites;
+    private final CrawlerSettings crawlerSettings;
     private final SiteRepository siteRepository;
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    private final BulkWriter bulkWriter;
+    private final IndexStorage indexStorage;
+    private final PageWriteBuffer pageWriteBuffer;
+    private final TransactionTemplate transactionTemplate;
+    private final Lemmatization lemmatization;
     public static volatile boolean inProgress;
     private static volatile boolean isStopped;
-    private boolean contains;
-    private SiteEntity siteEntity;
-    private ForkJoinPool forkJoinPool;
+    private volatile CrawlPipeline pipeline;
+    private final List<SiteParser> siteParsers = new CopyOnWriteArrayList<>();
+    private final Object checkpointLock = new Object();
+    private final Set<String> crawlingSites = ConcurrentHashMap.newKeySet();
+    private final Map<String, Object> siteLocks = new ConcurrentHashMap<>();
 
     @Override
     @SneakyThrows
-    public IndexingResponse startIndexing() {
+    public IndexingResponse startIndexing(boolean incremental) {
         if (inProgress) {
             return new IndexingResponse(false, "Индексация уже запущена");
         } else {
             inProgress = true;
-            new Thread(this::indexSite).start();
+            new Thread(() -> indexSite(incremental)).start();
             return new IndexingResponse(true);
         }
     }
@@ -52,7 +84,17 @@ public class IndexingServiceImpl implements IndexingService {
             inProgress = false;
             isStopped = true;
         }
-        forkJoinPool.shutdownNow();
+        siteParsers.forEach(SiteParser::stop);
+        try {
+            if (pipeline != null) {
+                pipeline.shutdownNow();
+                pipeline.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            pageWriteBuffer.flush();
+            saveCheckpoints();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         Iterable<SiteEntity> siteList = siteRepository.findAll();
         for (SiteEntity site : siteList) {
             if (site.getStatus() == Status.INDEXING) {
@@ -65,42 +107,35 @@ public class IndexingServiceImpl implements IndexingService {
         return new IndexingResponse(true);
     }
 
+    /**
+     * При остановке приложения обход прерывается так же, как по запросу пользователя,
+     * чтобы последняя контрольная точка соответствовала записанным страницам.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (inProgress) {
+            stopIndexing();
+        }
+    }
+
     @Override
     @SneakyThrows
     public IndexingResponse indexPage(String url) {
-        Site indexingSite = new Site();
+        Site indexingSite = null;
         for(Site site : sites.getSites()) {
             if(url.contains(site.getUrl())) {
-                contains = true;
                 indexingSite = site;
                 break;
             }
         }
-        if(contains){
-            boolean containsInRepository = false;
-            for(SiteEntity site : siteRepository.findAll()){
-                if(site.getName().equals(indexingSite.getName())){
-                    siteEntity = site;
-                    System.out.println("Сайт был найден в репозитории. Запущена пере индексация страницы");
-                    containsInRepository = true;
-                    break;
+        if(indexingSite != null){
+            synchronized (siteLock(indexingSite.getUrl())) {
+                if (crawlingSites.contains(indexingSite.getUrl())) {
+                    return new IndexingResponse(false,
+                            "Сайт страницы сейчас индексируется, повторите запрос после завершения индексации");
                 }
+                return reindexPage(indexingSite, url);
             }
-
-            if(!containsInRepository){
-                System.out.println("Сайт не был найден в репозитории. Создается новый объект");
-                siteEntity = new SiteEntity();
-                siteEntity.setUrl(indexingSite.getUrl());
-                siteEntity.setName(indexingSite.getName());
-                siteEntity.setStatus(Status.INDEXING);
-                siteEntity.setStatusTime(LocalDateTime.now());
-                siteRepository.save(siteEntity);
-            }
-
-            PageParser pageParser = new PageParser(siteEntity, url, pageRepository, siteRepository,
-                    lemmaRepository, indexRepository);
-            pageParser.parsePage();
-            return new IndexingResponse(true);
         }
         else {
             return new IndexingResponse(false,
@@ -108,44 +143,248 @@ public class IndexingServiceImpl implements IndexingService {
         }
     }
 
-    private IndexingResponse indexSite() {
-        siteRepository.deleteAll();
-        pageRepository.deleteAll();
-        lemmaRepository.deleteAll();
-        indexRepository.deleteAll();
+    /**
+     * Выполняется под блокировкой сайта: обход этого сайта не начнется, пока страница
+     * переиндексируется, а одновременные запросы для одного сайта выполняются по очереди.
+     * Иначе удаление неиспользуемых лемм могло бы потерять еще не записанные частоты обхода,
+     * а две вставки одной страницы нарушили бы уникальный ключ.
+     */
+    private IndexingResponse reindexPage(Site indexingSite, String url) {
+        SiteEntity siteEntity = siteRepository.findSiteEntityByUrlAndShadow(indexingSite.getUrl(), false);
+        if(siteEntity != null){
+            System.out.println("Сайт был найден в репозитории. Запущена пере индексация страницы");
+        } else {
+            System.out.println("Сайт не был найден в репозитории. Создается новый объект");
+            siteEntity = new SiteEntity();
+            siteEntity.setUrl(indexingSite.getUrl());
+            siteEntity.setName(indexingSite.getName());
+            siteEntity.setStatus(Status.INDEXING);
+            siteEntity.setStatusTime(LocalDateTime.now());
+            siteRepository.save(siteEntity);
+        }
 
+        LemmaDictionary lemmaDictionary = new LemmaDictionary(siteEntity, lemmaRepository, bulkWriter,
+                transactionTemplate);
+        PageParser pageParser = new PageParser(siteEntity, url, pageRepository, siteRepository,
+                lemmaDictionary, bulkWriter, indexStorage, transactionTemplate, lemmatization);
+        pageParser.parsePage();
+        return new IndexingResponse(true);
+    }
+
+    private Object siteLock(String siteUrl) {
+        return siteLocks.computeIfAbsent(siteUrl, key -> new Object());
+    }
+
+    private IndexingResponse indexSite(boolean incremental) {
+        Map<String, CrawlCheckpoint> checkpoints = loadCheckpoints();
+        if (!incremental) {
+            deleteUnconfiguredSites();
+        }
+
+        pipeline = new CrawlPipeline(crawlerSettings.getFetchConcurrency(), crawlerSettings.getParseThreads());
+        siteParsers.clear();
+        ExecutorService siteExecutor = Executors.newFixedThreadPool(Math.max(sites.getSites().size(), 1));
+        ScheduledExecutorService checkpointer = Executors.newSingleThreadScheduledExecutor();
+        int interval = crawlerSettings.getCheckpointIntervalSec();
+        checkpointer.scheduleAtFixedRate(this::saveCheckpoints, interval, interval, TimeUnit.SECONDS);
+        List<CompletableFuture<Void>> crawls = new ArrayList<>();
         for (Site site : sites.getSites()) {
-            SiteEntity siteEntity = new SiteEntity();
-            siteEntity.setName(site.getName());
-            siteEntity.setUrl(site.getUrl());
+            synchronized (siteLock(site.getUrl())) {
+                crawlingSites.add(site.getUrl());
+            }
+            CrawlCheckpoint checkpoint = checkpoints.get(site.getUrl());
+            SiteEntity liveSite = siteRepository.findSiteEntityByUrlAndShadow(site.getUrl(), false);
+            SiteEntity shadowSite = siteRepository.findSiteEntityByUrlAndShadow(site.getUrl(), true);
+            SiteEntity siteEntity;
+            SiteEntity replacedSite = null;
+            KnownPages knownPages;
+            if (checkpoint != null) {
+                System.out.println("Продолжение индексации сайта " + site.getUrl() + " с контрольной точки: "
+                        + checkpoint.getTasks().size() + " страниц в очереди");
+                siteEntity = shadowSite != null ? shadowSite : liveSite;
+                replacedSite = shadowSite != null ? liveSite : null;
+                knownPages = KnownPages.load(siteEntity, pageRepository);
+            } else {
+                if (shadowSite != null) {
+                    deleteSite(shadowSite);
+                }
+                if (incremental && liveSite != null) {
+                    siteEntity = liveSite;
+                    knownPages = KnownPages.load(siteEntity, pageRepository);
+                } else {
+                    siteEntity = new SiteEntity();
+                    siteEntity.setName(site.getName());
+                    siteEntity.setUrl(site.getUrl());
+                    siteEntity.setShadow(liveSite != null);
+                    replacedSite = liveSite;
+                    knownPages = KnownPages.empty();
+                }
+            }
             siteEntity.setStatus(Status.INDEXING);
             siteEntity.setStatusTime(LocalDateTime.now());
+            siteEntity.setLastError(null);
             siteRepository.save(siteEntity);
+            SiteEntity indexingSite = siteEntity;
+            SiteEntity replaced = replacedSite;
+            crawls.add(CompletableFuture.runAsync(() -> crawlSite(indexingSite, replaced, knownPages, checkpoint),
+                    siteExecutor));
+        }
+        CompletableFuture.allOf(crawls.toArray(new CompletableFuture<?>[0])).join();
+        checkpointer.shutdownNow();
+        siteExecutor.shutdown();
+        pipeline.shutdown();
+        System.out.println("Индексация завершена, " + lemmatization.getCache());
+
+        inProgress = false;
+        if (isStopped) {
+            isStopped = false;
+            return new IndexingResponse(false, "Индексация остановлена пользователем");
+        }
+        return new IndexingResponse(true);
+    }
 
-            SiteParser siteParser = new SiteParser(site.getUrl(),
-                    siteEntity,
-                    pageRepository, siteRepository, lemmaRepository, indexRepository);
-            forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
-            forkJoinPool.execute(siteParser);
-            forkJoinPool.shutdown();
+    /**
+     * Контрольные точки берутся только для сайтов, индексация которых была прервана.
+     */
+    private Map<String, CrawlCheckpoint> loadCheckpoints() {
+        Map<String, CrawlCheckpoint> checkpoints = new HashMap<>();
+        for (Site site : sites.getSites()) {
+            Path file = checkpointPath(site.getUrl());
+            CrawlCheckpoint checkpoint = CrawlCheckpoint.load(file);
+            if (checkpoint == null) {
+                continue;
+            }
+            SiteEntity siteEntity = siteRepository.findSiteEntityByUrlAndShadow(site.getUrl(), true);
+            if (siteEntity == null) {
+                siteEntity = siteRepository.findSiteEntityByUrlAndShadow(site.getUrl(), false);
+            }
+            if (siteEntity != null && siteEntity.getStatus() != Status.INDEXED) {
+                checkpoints.put(site.getUrl(), checkpoint);
+            } else {
+                CrawlCheckpoint.delete(file);
+            }
+        }
+        return checkpoints;
+    }
 
-            try {
-                forkJoinPool.awaitTermination(1, TimeUnit.HOURS);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
+    private void deleteUnconfiguredSites() {
+        Set<String> urls = new HashSet<>();
+        sites.getSites().forEach(site -> urls.add(site.getUrl()));
+        for (SiteEntity siteEntity : siteRepository.findAll()) {
+            if (!urls.contains(siteEntity.getUrl())) {
+                deleteSite(siteEntity);
             }
+        }
+    }
 
-            if (isStopped) {
-                isStopped = false;
-                return new IndexingResponse(false, "Индексация остановлена пользователем");
+    /**
+     * Вызывается и по расписанию, и из stopIndexing; под checkpointLock сохранения не пересекаются
+     * между собой и с завершением обхода сайта, которое удаляет его контрольную точку.
+     */
+    private void saveCheckpoints() {
+        synchronized (checkpointLock) {
+            for (SiteParser siteParser : siteParsers) {
+                String url = siteParser.getSiteEntity().getUrl();
+                try {
+                    CrawlCheckpoint checkpoint = siteParser.checkpoint();
+                    indexStorage.commit(siteParser.getSiteEntity());
+                    checkpoint.save(checkpointPath(url));
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Не удалось сохранить контрольную точку сайта " + url + ": " + e.getMessage());
+                }
             }
+        }
+    }
+
+    private Path checkpointPath(String siteUrl) {
+        return CrawlCheckpoint.pathFor(crawlerSettings.getCheckpointDir(), siteUrl);
+    }
+
+    /**
+     * Если replacedSite не null, сайт индексируется в новое поколение, а поиск до завершения обхода
+     * продолжает работать по replacedSite.
+     */
+    private void crawlSite(SiteEntity siteEntity, SiteEntity replacedSite, KnownPages knownPages,
+                           CrawlCheckpoint checkpoint) {
+        LemmaDictionary lemmaDictionary = new LemmaDictionary(siteEntity, lemmaRepository, bulkWriter,
+                transactionTemplate);
+        VisitedUrlSet visitedUrls = checkpoint != null
+                ? VisitedUrlSet.fromFingerprints(checkpoint.getVisited())
+                : new VisitedUrlSet(crawlerSettings.isCompactVisitedSet());
+        CrawlFrontier frontier = new CrawlFrontier(visitedUrls, crawlerSettings.getMaxDepth(),
+                crawlerSettings.getMaxPages(), crawlerSettings.getHostConcurrency(),
+                crawlerSettings.getCrawlDelayMs());
+        SiteParser siteParser = new SiteParser(siteEntity, frontier, pipeline, pageWriteBuffer, lemmaDictionary,
+                knownPages, lemmatization);
+        siteParsers.add(siteParser);
 
+        try {
+            if (checkpoint != null) {
+                siteParser.resume(checkpoint);
+            } else {
+                siteParser.crawl();
+            }
+            pageWriteBuffer.flush(lemmaDictionary);
+            lemmaDictionary.flush();
+            indexStorage.commit(siteEntity);
+            if (isStopped) {
+                return;
+            }
+            synchronized (checkpointLock) {
+                siteParsers.remove(siteParser);
+                CrawlCheckpoint.delete(checkpointPath(siteEntity.getUrl()));
+            }
+            if (siteParser.getRootError() != null) {
+                markFailed(siteEntity, "Главная страница сайта недоступна: " + siteParser.getRootError());
+                return;
+            }
+            if (checkpoint == null) {
+                removeDisappearedPages(siteEntity, knownPages, lemmaDictionary);
+                indexStorage.commit(siteEntity);
+            }
+            bulkWriter.deleteUnusedLemmas(siteEntity);
             siteEntity.setStatus(Status.INDEXED);
             siteEntity.setStatusTime(LocalDateTime.now());
             siteRepository.save(siteEntity);
+            if (replacedSite != null) {
+                bulkWriter.swapGenerations(replacedSite, siteEntity);
+                siteEntity.setShadow(false);
+                deleteSite(replacedSite);
+                System.out.println("Новое поколение индекса сайта " + siteEntity.getUrl() + " введено в работу");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("Ошибка индексации сайта " + siteEntity.getUrl() + ": " + e.getMessage());
+            siteParser.stop();
+            markFailed(siteEntity, e.getMessage());
+        } finally {
+            crawlingSites.remove(siteEntity.getUrl());
         }
+    }
 
-        inProgress = false;
-        return new IndexingResponse(true);
+    private void removeDisappearedPages(SiteEntity siteEntity, KnownPages knownPages,
+                                        LemmaDictionary lemmaDictionary) {
+        List<Integer> pageIds = knownPages.getUnseenIds();
+        if (pageIds.isEmpty()) {
+            return;
+        }
+        System.out.println("Удаление исчезнувших страниц сайта " + siteEntity.getUrl() + ": " + pageIds.size());
+        lemmaDictionary.uncountPages(indexStorage.findLemmaIdsByPages(siteEntity, pageIds));
+        indexStorage.deleteIndexesByPages(siteEntity, pageIds);
+        bulkWriter.deletePages(pageIds);
+        lemmaDictionary.flush();
+    }
+
+    private void deleteSite(SiteEntity siteEntity) {
+        indexStorage.deleteSite(siteEntity);
+        bulkWriter.deleteSite(siteEntity);
+    }
+
+    private void markFailed(SiteEntity siteEntity, String error) {
+        siteEntity.setStatus(Status.FAILED);
+        siteEntity.setStatusTime(LocalDateTime.now());
+        siteEntity.setLastError(error);
+        siteRepository.save(siteEntity);
     }
-}
\ No newline at end of file
+}
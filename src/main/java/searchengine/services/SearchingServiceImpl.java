@@ -1,24 +1,37 @@
 package searchengine.services;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
-import org.jsoup.Jsoup;
 import org.springframework.stereotype.Service;
 import searchengine.config.Site;
+import searchengine.config.ScoringSettings;
 import searchengine.config.SitesList;
+import searchengine.config.SnippetSettings;
+import searchengine.dto.PageDocument;
 import searchengine.dto.SearchData;
 import searchengine.dto.SearchResponse;
 import searchengine.model.LemmaEntity;
-import searchengine.model.PageEntity;
-import searchengine.model.SearchIndex;
 import searchengine.model.SiteEntity;
 import searchengine.repositories.LemmaRepository;
-import searchengine.repositories.IndexRepository;
+import searchengine.repositories.IndexStorage;
+import searchengine.repositories.PageRepository;
 import searchengine.repositories.SiteRepository;
 import searchengine.utils.SnippetGenerator;
+import searchengine.utils.Bm25Scorer;
 import searchengine.utils.Lemmatization;
+import searchengine.utils.PageStatistics;
+import searchengine.utils.PhraseQuery;
+import searchengine.utils.PostingCursor;
+import searchengine.utils.PostingListIntersector;
+import searchengine.utils.TermPositions;
+import searchengine.utils.TopKCollector;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,10 +39,31 @@ import java.util.stream.Collectors;
 public class SearchingServiceImpl implements SearchingService {
     private final SiteRepository siteRepository;
     private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    private final IndexStorage indexStorage;
+    private final PageRepository pageRepository;
     private final Lemmatization lemmatization;
-    private final SnippetGenerator snippetGenerator;
+    private final SnippetSettings snippetSettings;
+    private final ScoringSettings scoringSettings;
+    private final PageStatistics pageStatistics;
     private final SitesList sitesList;
+    private ThreadPoolExecutor snippetExecutor;
+
+    @PostConstruct
+    public void start() {
+        snippetExecutor = new ThreadPoolExecutor(snippetSettings.getThreads(), snippetSettings.getThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(snippetSettings.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "snippet-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snippetExecutor.shutdownNow();
+    }
 
     @Override
     public SearchResponse getSearchResults(String query, String siteUrl, Integer offset, Integer limit) {
@@ -42,42 +76,122 @@ public class SearchingServiceImpl implements SearchingService {
                     new ArrayList<>());
         }
 
+        if (offset < 0 || limit <= 0) {
+            return new SearchResponse(false,
+                    "Параметр offset не может быть отрицательным, а limit должен быть больше нуля",
+                    0,
+                    new ArrayList<>());
+        }
+
         Set<String> lemmasFromQuery = generateLemmasFromQuery(query);
+        List<PhraseQuery> phrases;
+        try {
+            phrases = PhraseQuery.parse(query, lemmatization);
+        } catch (IllegalArgumentException e) {
+            return new SearchResponse(false, e.getMessage(), 0, new ArrayList<>());
+        }
 
         LinkedHashMap<String, Integer> lemmasSortedByFrequency = sortLemmasByFrequency(lemmasFromQuery);
 
-        SearchResponse generatedSearchDataList;
+        if (lemmasSortedByFrequency.containsValue(0)) {
+            return new SearchResponse(true, 0, new ArrayList<>());
+        }
 
-        LinkedHashMap<LemmaEntity, PageEntity> entitiesList = new LinkedHashMap<>();
+        TopKCollector collector = new TopKCollector((int) Math.min((long) offset + limit, Integer.MAX_VALUE));
 
         if (siteUrl != null) {
             SiteEntity siteEntity = getSiteEntity(siteUrl);
-            entitiesList = getEntitiesList(lemmasFromQuery, siteEntity, lemmasSortedByFrequency);
-
-            LinkedHashMap<PageEntity, Integer> pagesByRelevance = countAbsoluteRank(entitiesList);
-            LinkedHashMap<PageEntity, Integer> sortedPages = sortPagesByRelevance(pagesByRelevance);
-            generatedSearchDataList = generateSearchDataList(sortedPages, lemmasFromQuery, limit, offset);
-
+            collectPages(siteEntity, lemmasSortedByFrequency, phrases, collector);
         } else {
             for (Site site : sitesList.getSites()) {
                 System.out.println(">>> Поиск на сайте: " + site.getName());
                 SiteEntity siteEntity = getSiteEntity(site.getUrl());
-                entitiesList.putAll(getEntitiesList(lemmasFromQuery, siteEntity, lemmasSortedByFrequency));
+                collectPages(siteEntity, lemmasSortedByFrequency, phrases, collector);
             }
-            LinkedHashMap<PageEntity, Integer> pagesByRelevance = countAbsoluteRank(entitiesList);
-            LinkedHashMap<PageEntity, Integer> sortedPages = sortPagesByRelevance(pagesByRelevance);
-            generatedSearchDataList = generateSearchDataList(sortedPages, lemmasFromQuery, limit, offset);
         }
+        int count = collector.getTotalHits();
+        List<SearchData> dataList = generateSearchDataList(collector.drain(), lemmasFromQuery, offset);
         System.out.println("Окончание поиска: " + (System.currentTimeMillis() - start));
-        return generatedSearchDataList;
+        return new SearchResponse(true, count, dataList);
     }
 
-    private LinkedHashMap<LemmaEntity, PageEntity> getEntitiesList(Set<String> lemmasFromQuery, SiteEntity site,
-                                                                   LinkedHashMap<String, Integer> lemmasSortedByFrequency) {
-        List<PageEntity> pagesListFromFirstLemma = getPageEntityListFromFirstLemma(lemmasSortedByFrequency, site);
-        List<PageEntity> pagesFilteredByNextLemmas = filterPagesByOtherLemmas(lemmasSortedByFrequency,
-                pagesListFromFirstLemma);
-        return compareFinalPagesAndLemmas(pagesFilteredByNextLemmas, lemmasFromQuery);
+    private void collectPages(SiteEntity site, LinkedHashMap<String, Integer> lemmasSortedByFrequency,
+                              List<PhraseQuery> phrases, TopKCollector collector) {
+        if (site == null) {
+            return;
+        }
+
+        List<LemmaEntity> siteLemmas = lemmaRepository.findBySiteIDAndLemmaIn(site, lemmasSortedByFrequency.keySet());
+        if (siteLemmas.size() < lemmasSortedByFrequency.size()) {
+            return;
+        }
+        siteLemmas.sort(Comparator.comparingInt(LemmaEntity::getFrequency));
+
+        List<PostingCursor> postingCursors = new ArrayList<>();
+        for (LemmaEntity lemma : siteLemmas) {
+            PostingCursor postingCursor = indexStorage.findPostings(lemma);
+            if (postingCursor.size() == 0) {
+                return;
+            }
+            postingCursors.add(postingCursor);
+        }
+
+        PostingListIntersector.Intersection intersection = PostingListIntersector.intersect(postingCursors);
+        Set<Integer> phrasePages = phrases.isEmpty() ? null : findPhrasePages(site, siteLemmas, intersection, phrases);
+        int size = intersection.getSize();
+        int[] pageIds = intersection.getPageIds();
+
+        int[] documentFrequencies = new int[siteLemmas.size()];
+        for (int i = 0; i < documentFrequencies.length; i++) {
+            documentFrequencies[i] = siteLemmas.get(i).getFrequency();
+        }
+        double averageLength = pageStatistics.getAverageLength(site.getId());
+        Bm25Scorer scorer = new Bm25Scorer(scoringSettings.getK1(), scoringSettings.getB(),
+                pageStatistics.getPageCount(site.getId()), averageLength, documentFrequencies);
+        if (scorer.getMaxScore() < collector.getMinCompetitiveScore()) {
+            // ни одна страница сайта не вытеснит уже собранные результаты
+            collector.countHits(phrasePages == null ? size : phrasePages.size());
+            return;
+        }
+
+        int[] lengths = new int[size];
+        pageStatistics.getLengths(pageIds, size, lengths, (int) Math.max(1, Math.round(averageLength)));
+        float[] scores = new float[size];
+        scorer.score(intersection.getRanks(), lengths, size, scores);
+        for (int i = 0; i < size; i++) {
+            if (phrasePages == null || phrasePages.contains(pageIds[i])) {
+                collector.collect(pageIds[i], scores[i]);
+            }
+        }
+    }
+
+    /**
+     * Оставляет из найденных страниц те, на которых встречаются все фразы запроса.
+     */
+    private Set<Integer> findPhrasePages(SiteEntity site, List<LemmaEntity> siteLemmas,
+                                         PostingListIntersector.Intersection intersection, List<PhraseQuery> phrases) {
+        Set<String> phraseLemmas = new HashSet<>();
+        phrases.forEach(phrase -> phraseLemmas.addAll(phrase.getLemmas()));
+        Map<Integer, String> lemmasById = new HashMap<>();
+        for (LemmaEntity lemma : siteLemmas) {
+            if (phraseLemmas.contains(lemma.getLemma())) {
+                lemmasById.put(lemma.getId(), lemma.getLemma());
+            }
+        }
+        List<Integer> pageIds = new ArrayList<>(intersection.getSize());
+        for (int i = 0; i < intersection.getSize(); i++) {
+            pageIds.add(intersection.getPageIds()[i]);
+        }
+
+        Set<Integer> phrasePages = new HashSet<>();
+        indexStorage.findPositions(site, pageIds, lemmasById.keySet()).forEach((pageId, positionsByLemmaId) -> {
+            Map<String, TermPositions> pagePositions = new HashMap<>();
+            positionsByLemmaId.forEach((lemmaId, positions) -> pagePositions.put(lemmasById.get(lemmaId), positions));
+            if (phrases.stream().allMatch(phrase -> phrase.matches(pagePositions))) {
+                phrasePages.add(pageId);
+            }
+        });
+        return phrasePages;
     }
 
     private SearchData generateSearchData(String site, String siteName, String uri,
@@ -86,52 +200,91 @@ public class SearchingServiceImpl implements SearchingService {
                 .snippet(snippet).relevance(relevance).build();
     }
 
-    private SearchResponse generateSearchDataList(LinkedHashMap<PageEntity, Integer> sortedPages,
-                                                  Set<String> lemmasFromQuery, int limit, int offset) {
+    private List<SearchData> generateSearchDataList(TopKCollector.Result topPages,
+                                                    Set<String> lemmasFromQuery, int offset) {
+        List<Integer> pageIds = new ArrayList<>();
+        for (int i = offset; i < topPages.getSize(); i++) {
+            pageIds.add(topPages.getPageIds()[i]);
+        }
 
-        if (offset != 0 || !sortedPages.isEmpty()) {
-            sortedPages.remove(sortedPages.keySet().stream().findFirst().orElseThrow());
+        Map<Integer, PageDocument> pagesById = new HashMap<>();
+        if (!pageIds.isEmpty()) {
+            pageRepository.findDocuments(pageIds).forEach(page -> pagesById.put(page.getId(), page));
         }
+        Map<Integer, Map<String, TermPositions>> hitsByPage = findHits(pagesById.values(), lemmasFromQuery);
 
-        List<SearchData> dataList = new ArrayList<>();
-        List<SearchData> newDataList;
-        for (Map.Entry<PageEntity, Integer> entry : sortedPages.entrySet()) {
-            dataList.add(generateSearchData(
-                    entry.getKey().getSiteID().getUrl(),
-                    entry.getKey().getSiteID().getName(),
-                    shortThePath(entry.getKey(), entry.getKey().getSiteID()),
-                    Jsoup.parse(entry.getKey().getContent()).title(),
-                    getSnippet(entry.getKey(), lemmasFromQuery),
-                    entry.getValue())
-            );
-        }
-
-        if (dataList.size() < limit) {
-            newDataList = dataList;
-        } else if (dataList.size() - offset < limit){
-            newDataList = dataList.subList(offset, dataList.size());
-        } else {
-            newDataList = dataList.subList(offset, offset + limit);
+        List<CompletableFuture<SearchData>> futures = new ArrayList<>();
+        for (int i = offset; i < topPages.getSize(); i++) {
+            PageDocument page = pagesById.get(topPages.getPageIds()[i]);
+            if (page == null) {
+                continue;
+            }
+            float relevance = topPages.getScores()[i];
+            Map<String, TermPositions> pageHits = hitsByPage.getOrDefault(page.getId(), Map.of());
+            futures.add(CompletableFuture.supplyAsync(() -> generateSearchData(
+                    page.getSiteUrl(),
+                    page.getSiteName(),
+                    shortThePath(page.getPath(), page.getSiteUrl()),
+                    page.getTitle(),
+                    getSnippet(page, pageHits, lemmasFromQuery),
+                    relevance), snippetExecutor));
         }
 
-        return new SearchResponse(true, dataList.size(), newDataList);
+        List<SearchData> dataList = new ArrayList<>();
+        futures.forEach(future -> dataList.add(future.join()));
+        return dataList;
     }
 
-    private String shortThePath(PageEntity page, SiteEntity site) {
-        String pageURL = page.getPath();
-        String siteURL = site.getUrl();
+    private String shortThePath(String pageURL, String siteURL) {
         return pageURL.replaceAll(siteURL, "");
     }
 
     private SiteEntity getSiteEntity(String siteURL) {
-        return siteRepository.findSiteEntityByUrl(siteURL);
+        return siteRepository.findSiteEntityByUrlAndShadow(siteURL, false);
     }
 
-    private String getSnippet(PageEntity page, Set<String> lemmas) {
-        List<String> queryList = new ArrayList<>(lemmas);
-        snippetGenerator.setText(page.getContent());
-        snippetGenerator.setQueryWords(queryList);
-        return snippetGenerator.generateSnippets();
+    /**
+     * Позиции лемм запроса на страницах результата, по одному запросу к хранилищу на сайт.
+     */
+    private Map<Integer, Map<String, TermPositions>> findHits(Collection<PageDocument> pages, Set<String> lemmas) {
+        Map<Integer, List<Integer>> pageIdsBySite = new HashMap<>();
+        pages.forEach(page -> pageIdsBySite.computeIfAbsent(page.getSiteId(), siteId -> new ArrayList<>())
+                .add(page.getId()));
+
+        Map<Integer, Map<String, TermPositions>> hitsByPage = new HashMap<>();
+        pageIdsBySite.forEach((siteId, pageIds) -> {
+            SiteEntity site = siteRepository.findById(siteId).orElse(null);
+            if (site == null) {
+                return;
+            }
+            Map<Integer, String> lemmasById = new HashMap<>();
+            lemmaRepository.findBySiteIDAndLemmaIn(site, lemmas)
+                    .forEach(lemma -> lemmasById.put(lemma.getId(), lemma.getLemma()));
+            indexStorage.findPositions(site, pageIds, lemmasById.keySet()).forEach((pageId, positionsByLemmaId) -> {
+                Map<String, TermPositions> pageHits = new HashMap<>();
+                positionsByLemmaId.forEach((lemmaId, positions) -> pageHits.put(lemmasById.get(lemmaId), positions));
+                hitsByPage.put(pageId, pageHits);
+            });
+        });
+        return hitsByPage;
+    }
+
+    /**
+     * Если вхождений в тексте нет, вместо сниппета показывается описание страницы.
+     */
+    private String getSnippet(PageDocument page, Map<String, TermPositions> pageHits, Set<String> lemmas) {
+        List<TermPositions> hits = new ArrayList<>();
+        for (String lemma : lemmas) {
+            if (pageHits.containsKey(lemma)) {
+                hits.add(pageHits.get(lemma));
+            }
+        }
+        String snippet = page.getText() != null
+                ? SnippetGenerator.generateSnippet(page.getText(), hits, snippetSettings) : "";
+        if (snippet.isEmpty() && page.getDescription() != null) {
+            return SnippetGenerator.escape(page.getDescription());
+        }
+        return snippet;
     }
 
     private Set<String> generateLemmasFromQuery(String query) {
@@ -140,12 +293,10 @@ public class SearchingServiceImpl implements SearchingService {
 
     private LinkedHashMap<String, Integer> sortLemmasByFrequency(Set<String> lemmasList) {
         LinkedHashMap<String, Integer> foundLemmas = new LinkedHashMap<>();
-        for (String lemmaFromList : lemmasList) {
-            AtomicInteger frequency = new AtomicInteger();
-            List<LemmaEntity> lemmas = lemmaRepository.findLemmaEntitiesByLemma(lemmaFromList);
-            lemmas = removeMostFrequentlyLemmas(lemmas);
-            lemmas.forEach(lemmaEntity -> frequency.set(frequency.get() + lemmaEntity.getFrequency()));
-            foundLemmas.put(lemmaFromList, frequency.intValue());
+        lemmasList.forEach(lemma -> foundLemmas.put(lemma, 0));
+        if (!lemmasList.isEmpty()) {
+            lemmaRepository.sumFrequencies(lemmasList)
+                    .forEach(lemma -> foundLemmas.put(lemma.getLemma(), (int) lemma.getFrequency()));
         }
 
         return foundLemmas.entrySet().stream()
@@ -155,92 +306,4 @@ public class SearchingServiceImpl implements SearchingService {
                         },
                         LinkedHashMap::new));
     }
-
-    private ArrayList<LemmaEntity> removeMostFrequentlyLemmas(List<LemmaEntity> lemmas) {
-        ArrayList<LemmaEntity> reList = new ArrayList<>(lemmas);
-        int removableLemmasPercent = 5;
-        int removeCount = Math.round((float) lemmas.size() / 100 * removableLemmasPercent);
-        LemmaEntity removable = new LemmaEntity();
-        for (int i = 0; i < removeCount; i++) {
-            int maxFrequency = 0;
-            for (LemmaEntity lemma : lemmas) {
-                if (lemma.getFrequency() > maxFrequency) {
-                    maxFrequency = lemma.getFrequency();
-                    removable = lemma;
-                }
-            }
-            reList.remove(removable);
-        }
-        return reList;
-    }
-
-    private List<PageEntity> getPageEntityListFromFirstLemma(LinkedHashMap<String, Integer> sortedLemmas, SiteEntity site) {
-        List<PageEntity> listFromFirstLemma = new ArrayList<>();
-        ArrayList<String> lemmaList = new ArrayList<>();
-        for (Map.Entry<String, Integer> entry : sortedLemmas.entrySet()) {
-            lemmaList.add(entry.getKey());
-        }
-        String rareLemma = lemmaList.get(0);
-        ArrayList<SearchIndex> indexesFromFirstLemma = indexRepository.findByLemmaID_LemmaAndPageID_SiteID(rareLemma, site);
-        indexesFromFirstLemma.forEach(searchIndex -> listFromFirstLemma.add(searchIndex.getPageID()));
-        return listFromFirstLemma;
-    }
-
-    private List<PageEntity> filterPagesByOtherLemmas(LinkedHashMap<String, Integer> sortedLemmas,
-                                                      List<PageEntity> pagesListFromFirstLemma) {
-        List<PageEntity> refactoredList = new ArrayList<>(pagesListFromFirstLemma);
-        ArrayList<String> lemmaList = new ArrayList<>();
-        for (Map.Entry<String, Integer> entry : sortedLemmas.entrySet()) {
-            lemmaList.add(entry.getKey());
-        }
-        if (!lemmaList.isEmpty()) {
-            lemmaList.remove(0);
-            for (PageEntity page : pagesListFromFirstLemma) {
-                for (String lemma : lemmaList) {
-                    if (indexRepository.findByPageIDAndLemmaID_Lemma(page, lemma).isEmpty()) {
-                        refactoredList.remove(page);
-                    }
-                }
-            }
-        }
-        return refactoredList;
-    }
-
-    private LinkedHashMap<PageEntity, Integer> countAbsoluteRank(LinkedHashMap<LemmaEntity, PageEntity> lemmaAndPageList) {
-        LinkedHashMap<PageEntity, Integer> sortedList = new LinkedHashMap<>();
-        for (Map.Entry<LemmaEntity, PageEntity> entry : lemmaAndPageList.entrySet()) {
-            if (sortedList.containsKey(entry.getValue())) {
-                int rank = sortedList.get(entry.getValue());
-                sortedList.remove(entry.getValue());
-                sortedList.put(entry.getValue(), (entry.getKey().getFrequency() + rank));
-            } else {
-                sortedList.put(entry.getValue(), entry.getKey().getFrequency());
-            }
-        }
-        return sortedList;
-    }
-
-    private LinkedHashMap<LemmaEntity, PageEntity> compareFinalPagesAndLemmas(List<PageEntity> pagesFilteredByNextLemmas,
-                                                                              Set<String> lemmasFromQuery) {
-        LinkedHashMap<LemmaEntity, PageEntity> finalPagesAndLemmasList = new LinkedHashMap<>();
-        for (PageEntity page : pagesFilteredByNextLemmas) {
-            for (String lemma : lemmasFromQuery) {
-                indexRepository.findByPageIDAndLemmaID_Lemma(page, lemma)
-                        .forEach(searchIndex ->
-                                finalPagesAndLemmasList.put(searchIndex.getLemmaID(), searchIndex.getPageID()));
-            }
-        }
-        return finalPagesAndLemmasList;
-    }
-
-    private LinkedHashMap<PageEntity, Integer> sortPagesByRelevance(LinkedHashMap<PageEntity, Integer> finalPages) {
-        LinkedHashMap<PageEntity, Integer> sortedList;
-        sortedList = finalPages.entrySet().stream().sorted(Comparator.comparingInt(e -> -e.getValue()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> {
-                            throw new AssertionError();
-                        },
-                        LinkedHashMap::new
-                ));
-        return sortedList;
-    }
 }
\ No newline at end of file
@@ -8,8 +8,6 @@ import searchengine.dto.statistics.DetailedStatisticsItem;
 import searchengine.dto.statistics.StatisticsData;
 import searchengine.dto.statistics.StatisticsResponse;
 import searchengine.dto.statistics.TotalStatistics;
-import searchengine.model.LemmaEntity;
-import searchengine.model.PageEntity;
 import searchengine.model.SiteEntity;
 import searchengine.repositories.LemmaRepository;
 import searchengine.repositories.PageRepository;
@@ -67,33 +65,22 @@ public class StatisticsServiceImpl implements StatisticsService {
         return response;
     }
 
+    /**
+     * Считается запросом count: загрузка страниц распаковывала бы html и текст каждой из них.
+     */
     private int countPages(SiteEntity site, PageRepository pageRepository) {
-        int count = 0;
-        List<PageEntity> pageEntityList = pageRepository.findAll();
-        for(PageEntity page : pageEntityList) {
-            if(page.getSiteID().getId() == site.getId()) {
-                count++;
-            }
-        }
-        return count;
+        return (int) pageRepository.countBySiteID(site);
     }
 
     private int countLemmas(SiteEntity site, LemmaRepository lemmaRepository) {
-        int count = 0;
-        List<LemmaEntity> lemmaEntityList = lemmaRepository.findAll();
-        for(LemmaEntity lemma : lemmaEntityList) {
-            if(lemma.getSiteID().getId() == site.getId()) {
-                count++;
-            }
-        }
-        return count;
+        return (int) lemmaRepository.countBySiteID(site);
     }
 
     private SiteEntity getSiteFromRepository(Site site, SiteRepository siteRepository) {
         List<SiteEntity> siteEntityList = siteRepository.findAll();
         SiteEntity resultEntity = null;
         for(SiteEntity siteEntity : siteEntityList) {
-            if(siteEntity.getName().equals(site.getName())) {
+            if(!siteEntity.isShadow() && siteEntity.getName().equals(site.getName())) {
                 resultEntity = siteEntity;
             }
         }
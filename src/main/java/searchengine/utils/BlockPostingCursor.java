@@ -0,0 +1,114 @@
+package searchengine.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Курсор по списку в формате {@link PostingCodec}. Декодирует за раз один блок,
+ * а при advance пропускает блоки, последняя страница которых меньше искомой.
+ */
+public class BlockPostingCursor implements PostingCursor {
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int blockCount;
+    private final int skipPosition;
+    private final int dataPosition;
+    private final int[] pageIds = new int[PostingCodec.BLOCK_SIZE];
+    private final float[] ranks = new float[PostingCodec.BLOCK_SIZE];
+    private final int[] value = new int[1];
+    private int block = -1;
+    private int blockSize;
+    private int index;
+    private int current = NO_MORE;
+
+    public BlockPostingCursor(ByteBuffer buffer, int position) {
+        this.buffer = buffer;
+        count = buffer.getInt(position);
+        blockCount = buffer.getInt(position + 4);
+        skipPosition = position + PostingCodec.HEADER_SIZE;
+        dataPosition = skipPosition + blockCount * PostingCodec.SKIP_ENTRY_SIZE;
+        if (count > 0) {
+            loadBlock(0);
+        }
+    }
+
+    @Override
+    public int pageId() {
+        return current;
+    }
+
+    @Override
+    public float rank() {
+        return ranks[index];
+    }
+
+    @Override
+    public int next() {
+        if (current == NO_MORE) {
+            return NO_MORE;
+        }
+        if (++index < blockSize) {
+            current = pageIds[index];
+        } else if (block + 1 < blockCount) {
+            loadBlock(block + 1);
+        } else {
+            current = NO_MORE;
+        }
+        return current;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (current >= target) {
+            return current;
+        }
+        if (lastPageId(block) < target) {
+            int low = block + 1;
+            int high = blockCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (lastPageId(middle) < target) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            if (low == blockCount) {
+                current = NO_MORE;
+                return current;
+            }
+            loadBlock(low);
+        }
+        while (pageIds[index] < target) {
+            index++;
+        }
+        current = pageIds[index];
+        return current;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    private int lastPageId(int blockIndex) {
+        return buffer.getInt(skipPosition + blockIndex * PostingCodec.SKIP_ENTRY_SIZE);
+    }
+
+    private void loadBlock(int blockIndex) {
+        block = blockIndex;
+        blockSize = Math.min(PostingCodec.BLOCK_SIZE, count - blockIndex * PostingCodec.BLOCK_SIZE);
+        int position = dataPosition + buffer.getInt(skipPosition + blockIndex * PostingCodec.SKIP_ENTRY_SIZE + 4);
+        int pageId = blockIndex == 0 ? 0 : lastPageId(blockIndex - 1);
+        for (int i = 0; i < blockSize; i++) {
+            position = PostingCodec.readVByte(buffer, position, value);
+            pageId += value[0];
+            pageIds[i] = pageId;
+        }
+        for (int i = 0; i < blockSize; i++) {
+            position = PostingCodec.readVByte(buffer, position, value);
+            ranks[i] = PostingCodec.dequantize(value[0]);
+        }
+        index = 0;
+        current = pageIds[0];
+    }
+}
@@ -0,0 +1,58 @@
+package searchengine.utils;
+
+import java.util.Arrays;
+
+/**
+ * Оценка BM25 для страниц одного сайта:
+ * <pre>
+ * idf = ln(1 + (N - df + 0.5) / (df + 0.5))
+ * score = sum idf * tf * (k1 + 1) / (tf + k1 * (1 - b + b * length / averageLength))
+ * </pre>
+ * N - число страниц сайта, df - число страниц с леммой (частота леммы), tf - число вхождений
+ * леммы на странице, length - число слов страницы. Все величины считаются при индексации.
+ */
+public class Bm25Scorer {
+    private final float[] weights;
+    private final float lengthBase;
+    private final float lengthScale;
+    private final float maxScore;
+
+    /**
+     * documentFrequencies - частоты лемм в том же порядке, в каком потом передаются их tf.
+     */
+    public Bm25Scorer(float k1, float b, int pageCount, double averageLength, int[] documentFrequencies) {
+        weights = new float[documentFrequencies.length];
+        float total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            int df = Math.min(documentFrequencies[i], pageCount);
+            double idf = Math.log(1 + (pageCount - df + 0.5) / (df + 0.5));
+            weights[i] = (float) (idf * (k1 + 1));
+            total += weights[i];
+        }
+        maxScore = total;
+        lengthBase = k1 * (1 - b);
+        lengthScale = averageLength > 0 ? (float) (k1 * b / averageLength) : 0;
+    }
+
+    /**
+     * Верхняя граница оценки любой страницы: к ней стремится score при tf, стремящемся к бесконечности.
+     */
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Считает scores[0..size) по termFrequencies[лемма][страница] и lengths[страница].
+     */
+    public void score(float[][] termFrequencies, int[] lengths, int size, float[] scores) {
+        Arrays.fill(scores, 0, size, 0f);
+        for (int term = 0; term < weights.length; term++) {
+            float[] frequencies = termFrequencies[term];
+            float weight = weights[term];
+            for (int i = 0; i < size; i++) {
+                float tf = frequencies[i];
+                scores[i] += weight * tf / (tf + lengthBase + lengthScale * lengths[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package searchengine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие текстов страниц для хранения в базе.
+ * <pre>
+ * byte FORMAT_DEFLATE, int длина в байтах UTF-8, поток deflate без заголовка zlib
+ * </pre>
+ * Значения, записанные до появления сжатия, хранятся как UTF-8 без маркера и читаются как есть.
+ */
+public class ContentCompressor {
+    static final byte FORMAT_DEFLATE = 1;
+    private static final int HEADER_SIZE = 5;
+    /**
+     * Больше, чем в 1032 раза, deflate сжать не может; большая длина в заголовке - признак повреждения.
+     */
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public static byte[] compress(String text) {
+        if (text == null) {
+            return null;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + HEADER_SIZE + 16);
+        out.write(FORMAT_DEFLATE);
+        out.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return out.toByteArray();
+    }
+
+    public static String decompress(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (data.length < HEADER_SIZE || data[0] != FORMAT_DEFLATE) {
+            return new String(data, StandardCharsets.UTF_8);
+        }
+        int size = ByteBuffer.wrap(data, 1, 4).getInt();
+        if (size < 0 || size > (long) (data.length - HEADER_SIZE) * MAX_DEFLATE_RATIO) {
+            throw new IllegalStateException("Сжатый текст поврежден: недопустимая длина " + size);
+        }
+        byte[] bytes = new byte[size];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        try {
+            int length = 0;
+            while (length < bytes.length && !inflater.finished()) {
+                int read = inflater.inflate(bytes, length, bytes.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != bytes.length) {
+                throw new IllegalStateException("Сжатый текст поврежден: " + length + " из " + bytes.length + " байт");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Сжатый текст поврежден", e);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
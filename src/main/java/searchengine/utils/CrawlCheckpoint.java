@@ -0,0 +1,80 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+@Getter
+@RequiredArgsConstructor
+public class CrawlCheckpoint {
+    private static final int FORMAT_VERSION = 1;
+
+    private final long[] visited;
+    private final List<CrawlFrontier.CrawlTask> tasks;
+
+    public static Path pathFor(String directory, String siteUrl) {
+        String name = ContentHasher.sha256(siteUrl.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+        return Path.of(directory, name + ".ckpt");
+    }
+
+    public void save(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(visited.length);
+            for (long fingerprint : visited) {
+                out.writeLong(fingerprint);
+            }
+            out.writeInt(tasks.size());
+            for (CrawlFrontier.CrawlTask task : tasks) {
+                out.writeUTF(task.getUrl());
+                out.writeInt(task.getDepth());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CrawlCheckpoint load(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long[] visited = new long[in.readInt()];
+            for (int i = 0; i < visited.length; i++) {
+                visited[i] = in.readLong();
+            }
+            int taskCount = in.readInt();
+            List<CrawlFrontier.CrawlTask> tasks = new ArrayList<>(taskCount);
+            for (int i = 0; i < taskCount; i++) {
+                tasks.add(new CrawlFrontier.CrawlTask(in.readUTF(), in.readInt()));
+            }
+            return new CrawlCheckpoint(visited, tasks);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            System.out.println("Не удалось прочитать контрольную точку " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.out.println("Не удалось удалить контрольную точку " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.net.URI;
+import java.util.*;
+
+public class CrawlFrontier {
+    private final VisitedUrlSet visitedUrls;
+    private final int maxDepth;
+    private final int maxPages;
+    private final int hostConcurrency;
+    private final long crawlDelayMs;
+    private final Map<String, HostQueue> hosts = new LinkedHashMap<>();
+    private final Set<CrawlTask> inFlightTasks = new HashSet<>();
+    private int accepted;
+    private int queued;
+    private int inFlight;
+    private boolean closed;
+
+    public CrawlFrontier(VisitedUrlSet visitedUrls, int maxDepth, int maxPages,
+                         int hostConcurrency, long crawlDelayMs) {
+        this.visitedUrls = visitedUrls;
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.hostConcurrency = Math.max(hostConcurrency, 1);
+        this.crawlDelayMs = crawlDelayMs;
+    }
+
+    public synchronized void restore(Collection<CrawlTask> tasks) {
+        accepted = Math.max(accepted, visitedUrls.size());
+        for (CrawlTask task : tasks) {
+            queued++;
+            hosts.computeIfAbsent(hostOf(task.getUrl()), HostQueue::new).getTasks().add(task);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Задачи в очередях и задачи, которые сейчас загружаются или разбираются.
+     */
+    public synchronized List<CrawlTask> snapshot() {
+        List<CrawlTask> tasks = new ArrayList<>(inFlightTasks);
+        hosts.values().forEach(host -> tasks.addAll(host.getTasks()));
+        return tasks;
+    }
+
+    public long[] visitedFingerprints() {
+        return visitedUrls.toFingerprints();
+    }
+
+    public synchronized boolean add(String url, int depth) {
+        if (closed || depth > maxDepth || accepted >= maxPages || !visitedUrls.add(url)) {
+            return false;
+        }
+        accepted++;
+        queued++;
+        hosts.computeIfAbsent(hostOf(url), HostQueue::new).getTasks().add(new CrawlTask(url, depth));
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Ждет, пока у какого-либо хоста появится задача, которую можно выполнить с учетом
+     * ограничения параллельности и задержки между запросами. Возвращает null, когда обход закончен.
+     */
+    public synchronized CrawlTask take() throws InterruptedException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            long wait = Long.MAX_VALUE;
+            for (HostQueue host : hosts.values()) {
+                if (host.getTasks().isEmpty() || host.active >= hostConcurrency) {
+                    continue;
+                }
+                if (host.nextFetchTime <= now) {
+                    CrawlTask task = host.getTasks().poll();
+                    host.active++;
+                    host.nextFetchTime = now + crawlDelayMs;
+                    queued--;
+                    inFlight++;
+                    inFlightTasks.add(task);
+                    hosts.remove(host.getName());
+                    hosts.put(host.getName(), host);
+                    return task;
+                }
+                wait = Math.min(wait, host.nextFetchTime - now);
+            }
+            if (queued == 0 && inFlight == 0) {
+                return null;
+            }
+            if (wait == Long.MAX_VALUE) {
+                wait();
+            } else {
+                wait(wait);
+            }
+        }
+        return null;
+    }
+
+    public synchronized void fetched(CrawlTask task) {
+        HostQueue host = hosts.get(hostOf(task.getUrl()));
+        if (host != null) {
+            host.active--;
+        }
+        notifyAll();
+    }
+
+    public synchronized void complete(CrawlTask task) {
+        inFlight--;
+        inFlightTasks.remove(task);
+        notifyAll();
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(VisitedUrlSet.normalize(url)).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class CrawlTask {
+        private final String url;
+        private final int depth;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class HostQueue {
+        private final String name;
+        private final Queue<CrawlTask> tasks = new ArrayDeque<>();
+        private int active;
+        private long nextFetchTime;
+    }
+}
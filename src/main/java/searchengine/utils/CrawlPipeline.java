@@ -0,0 +1,81 @@
+package searchengine.utils;
+
+import java.util.concurrent.*;
+
+public class CrawlPipeline {
+    private final Semaphore fetchSlots;
+    private final ExecutorService fetchExecutor;
+    private final ExecutorService parseExecutor;
+
+    public CrawlPipeline(int fetchConcurrency, int parseThreads) {
+        int threads = parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+        this.fetchSlots = new Semaphore(Math.max(fetchConcurrency, 1), true);
+        this.fetchExecutor = Executors.newCachedThreadPool(namedThreads("page-fetcher"));
+        this.parseExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), namedThreads("page-parser"),
+                CrawlPipeline::runInCaller);
+    }
+
+    /**
+     * Блокирует вызывающий поток, пока число одновременных запросов не опустится ниже лимита.
+     * Семафор честный, поэтому сайты, индексируемые параллельно, получают слоты по очереди.
+     */
+    public void fetch(Runnable task) throws InterruptedException {
+        fetchSlots.acquire();
+        try {
+            fetchExecutor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    fetchSlots.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fetchSlots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Если очередь разбора заполнена, страница разбирается в потоке загрузки,
+     * что притормаживает загрузку новых страниц.
+     */
+    public void parse(Runnable task) {
+        parseExecutor.execute(task);
+    }
+
+    public void shutdown() {
+        fetchExecutor.shutdown();
+        parseExecutor.shutdown();
+    }
+
+    public void shutdownNow() {
+        fetchExecutor.shutdownNow();
+        parseExecutor.shutdownNow();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return fetchExecutor.awaitTermination(timeout, unit)
+                && parseExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Как CallerRunsPolicy, но после остановки пула задача не выбрасывается молча: исключение
+     * доходит до отправителя, и тот завершает задачу обхода сам.
+     */
+    private static void runInCaller(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Пул разбора страниц остановлен");
+        }
+        task.run();
+    }
+
+    private static ThreadFactory namedThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
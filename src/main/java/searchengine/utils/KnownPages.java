@@ -0,0 +1,53 @@
+package searchengine.utils;
+
+import searchengine.dto.PageValidators;
+import searchengine.model.SiteEntity;
+import searchengine.repositories.PageRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class KnownPages {
+    private final PageRepository pageRepository;
+    private final Map<String, PageValidators> pagesByUrl = new HashMap<>();
+    private final Set<Integer> seenIds = ConcurrentHashMap.newKeySet();
+
+    private KnownPages(PageRepository pageRepository) {
+        this.pageRepository = pageRepository;
+    }
+
+    public static KnownPages empty() {
+        return new KnownPages(null);
+    }
+
+    public static KnownPages load(SiteEntity site, PageRepository pageRepository) {
+        KnownPages knownPages = new KnownPages(pageRepository);
+        for (PageValidators page : pageRepository.findValidators(site)) {
+            knownPages.pagesByUrl.put(VisitedUrlSet.normalize(page.getPath()), page);
+        }
+        return knownPages;
+    }
+
+    public PageValidators get(String url) {
+        return pagesByUrl.isEmpty() ? null : pagesByUrl.get(VisitedUrlSet.normalize(url));
+    }
+
+    public void markSeen(PageValidators page) {
+        seenIds.add(page.getId());
+    }
+
+    public String loadContent(PageValidators page) {
+        String content = pageRepository.findContentById(page.getId());
+        return content != null ? content : "";
+    }
+
+    public List<Integer> getUnseenIds() {
+        List<Integer> unseen = new ArrayList<>();
+        for (PageValidators page : pagesByUrl.values()) {
+            if (!seenIds.contains(page.getId())) {
+                unseen.add(page.getId());
+            }
+        }
+        return unseen;
+    }
+}
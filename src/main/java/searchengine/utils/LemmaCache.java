@@ -0,0 +1,97 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Ограниченный кэш словоформа - (нормальная форма, служебное слово), общий для всех потоков.
+ * Разбит на сегменты со своей блокировкой, внутри сегмента вытесняется давно не использованная запись.
+ */
+public class LemmaCache {
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public LemmaCache(int maxSize) {
+        int segmentSize = Math.max(maxSize / SEGMENT_COUNT, 1);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    public Entry get(String word, Function<String, Entry> loader) {
+        Segment segment = segments[(word.hashCode() & 0x7FFFFFFF) % SEGMENT_COUNT];
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(word);
+        }
+        if (entry != null) {
+            hits.increment();
+            return entry;
+        }
+        misses.increment();
+        entry = loader.apply(word);
+        synchronized (segment) {
+            segment.put(word, entry);
+        }
+        return entry;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return "кэш лемм: " + size() + " слов, попаданий " + hitCount + " из " + total
+                + (total > 0 ? String.format(" (%.1f%%)", hitCount * 100.0 / total) : "");
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Entry {
+        /**
+         * null, если у слова нет нормальной формы.
+         */
+        private final String normalForm;
+        private final boolean functionWord;
+    }
+
+    private static class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
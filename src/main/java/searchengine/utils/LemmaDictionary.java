@@ -0,0 +1,100 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.model.LemmaEntity;
+import searchengine.model.SiteEntity;
+import searchengine.repositories.BulkWriter;
+import searchengine.repositories.LemmaRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@RequiredArgsConstructor
+public class LemmaDictionary {
+    private static final int FLUSH_THRESHOLD = 1000;
+
+    @Getter
+    private final SiteEntity site;
+    private final LemmaRepository lemmaRepository;
+    private final BulkWriter bulkWriter;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, LemmaEntity> lemmas = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> pendingFrequencies = new ConcurrentHashMap<>();
+
+    public Map<String, LemmaEntity> resolve(Collection<String> words) {
+        Map<String, LemmaEntity> resolved = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String word : words) {
+            LemmaEntity lemma = lemmas.get(word);
+            if (lemma == null) {
+                missing.add(word);
+            } else {
+                resolved.put(word, lemma);
+            }
+        }
+        if (missing.isEmpty()) {
+            return resolved;
+        }
+
+        bulkWriter.insertLemmas(site, missing);
+        for (LemmaEntity lemma : lemmaRepository.findBySiteIDAndLemmaIn(site, missing)) {
+            LemmaEntity cached = lemmas.putIfAbsent(lemma.getLemma(), lemma);
+            resolved.put(lemma.getLemma(), cached == null ? lemma : cached);
+        }
+        return resolved;
+    }
+
+    public void countPage(Collection<LemmaEntity> pageLemmas) {
+        for (LemmaEntity lemma : pageLemmas) {
+            pendingFrequencies.merge(lemma.getId(), 1, Integer::sum);
+        }
+        flushIfFull();
+    }
+
+    public void uncountPages(Collection<Integer> lemmaIds) {
+        for (Integer lemmaId : lemmaIds) {
+            pendingFrequencies.merge(lemmaId, -1, Integer::sum);
+        }
+        flushIfFull();
+    }
+
+    /**
+     * Вызывается после фиксации страниц, поэтому ошибка записи не пробрасывается: изменения
+     * остаются в словаре и уйдут в базу со следующим flush.
+     */
+    private void flushIfFull() {
+        if (pendingFrequencies.size() < FLUSH_THRESHOLD) {
+            return;
+        }
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.out.println("Не удалось записать частоты лемм сайта " + site.getUrl() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Изменения частот записываются одной транзакцией; если она не удалась, они возвращаются
+     * в словарь, иначе частоты навсегда разошлись бы с индексом.
+     */
+    public synchronized void flush() {
+        Map<Integer, Integer> deltas = new HashMap<>();
+        for (Integer lemmaId : new ArrayList<>(pendingFrequencies.keySet())) {
+            Integer delta = pendingFrequencies.remove(lemmaId);
+            if (delta != null && delta != 0) {
+                deltas.put(lemmaId, delta);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> bulkWriter.updateLemmaFrequencies(deltas));
+        } catch (RuntimeException e) {
+            deltas.forEach((lemmaId, delta) -> pendingFrequencies.merge(lemmaId, delta, Integer::sum));
+            throw e;
+        }
+    }
+}
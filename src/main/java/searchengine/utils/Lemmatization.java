@@ -1,89 +1,112 @@
 package searchengine.utils;
 
+import jakarta.annotation.PostConstruct;
 import lombok.SneakyThrows;
 import org.apache.lucene.morphology.english.EnglishLuceneMorphology;
 import org.apache.lucene.morphology.russian.RussianLuceneMorphology;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+/**
+ * Общий для всего приложения сервис морфологии: словари загружаются один раз при старте
+ * и используются всеми потоками обхода и поиска.
+ */
 @Component
 public class Lemmatization {
-    private final RussianLuceneMorphology russianLuceneMorphology = new RussianLuceneMorphology();
-    private final EnglishLuceneMorphology englishLuceneMorphology = new EnglishLuceneMorphology();
+    private final RussianLuceneMorphology russianLuceneMorphology;
+    private final EnglishLuceneMorphology englishLuceneMorphology;
     private static final String[] particlesRus = new String[]{"МЕЖД", "ПРЕДЛ", "СОЮЗ"};
     private static final String[] particlesEng = new String[]{"PN", "PREP", "PART", "ARTICLE"};
+    private static final int CACHE_SIZE = 200_000;
+    private final LemmaCache cache = new LemmaCache(CACHE_SIZE);
+    private final long loadTimeMs;
+
+    private final Function<String, LemmaCache.Entry> rusAnalyzer = this::analyzeRusWord;
+    private final Function<String, LemmaCache.Entry> engAnalyzer = this::analyzeEngWord;
 
     public Lemmatization() throws IOException {
+        long start = System.currentTimeMillis();
+        russianLuceneMorphology = new RussianLuceneMorphology();
+        englishLuceneMorphology = new EnglishLuceneMorphology();
+        loadTimeMs = System.currentTimeMillis() - start;
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        long start = System.currentTimeMillis();
+        getLemmas("Прогрев словарей морфологии перед началом индексации. Warming up morphology dictionaries");
+        System.out.println("Словари морфологии загружены за " + loadTimeMs + " мс, прогрев занял "
+                + (System.currentTimeMillis() - start) + " мс");
     }
 
     @SneakyThrows
     public Map<String, Integer> getLemmas(String text) {
         Map<String, Integer> lemmas = new HashMap<>();
+        Tokenizer.tokenize(text, (word, script, start, end) -> addLemma(lemmas, analyze(word, script)));
+        return lemmas;
+    }
 
-        List<String> rusWords = splitRusText(text);
-        for (String word : rusWords) {
-            try {
-                if (word.isBlank()) continue;
-
-                if (isNotRusWord(word)) continue;
-
-                List<String> normalForms = russianLuceneMorphology.getNormalForms(word.toLowerCase());
-                if (normalForms.isEmpty()) continue;
-
-                String normalWord = normalForms.get(0);
-
-                if (lemmas.containsKey(normalWord)) {
-                    lemmas.put(normalWord, lemmas.get(normalWord) + 1);
-                } else {
-                    lemmas.put(normalWord, 1);
-                }
-            } catch (Exception e) {
-                System.out.println("Can't get lemmas from word: " + word);
+    /**
+     * Леммы текста с номерами и границами их слов; номера слов учитывают и слова без лемм,
+     * чтобы расстояния между словами совпадали с исходным текстом.
+     */
+    public Map<String, TermPositions> getLemmaPositions(String text) {
+        Map<String, TermPositions> lemmas = new HashMap<>();
+        int[] position = new int[1];
+        Tokenizer.tokenize(text, (word, script, start, end) -> {
+            LemmaCache.Entry entry = analyze(word, script);
+            if (!entry.isFunctionWord() && entry.getNormalForm() != null) {
+                lemmas.computeIfAbsent(entry.getNormalForm(), lemma -> new TermPositions())
+                        .add(position[0], start, end);
             }
-        }
-
-        List<String> engWords = splitEngText(text);
-        for (String word : engWords) {
-            try {
-                if (word.isBlank()) continue;
-
-                if (isNotEngWord(word)) continue;
+            position[0]++;
+        });
+        return lemmas;
+    }
 
-                List<String> normalForms = englishLuceneMorphology.getNormalForms(word.toLowerCase());
-                if (normalForms.isEmpty()) continue;
+    public LemmaCache.Entry analyze(String word, Tokenizer.Script script) {
+        return cache.get(word, script == Tokenizer.Script.CYRILLIC ? rusAnalyzer : engAnalyzer);
+    }
 
-                String normalWord = normalForms.get(0);
+    public LemmaCache getCache() {
+        return cache;
+    }
 
-                if (lemmas.containsKey(normalWord)) {
-                    lemmas.put(normalWord, lemmas.get(normalWord) + 1);
-                } else {
-                    lemmas.put(normalWord, 1);
-                }
-            } catch (Exception e) {
-                System.out.println("Can't get lemmas from word: " + word);
-            }
+    private void addLemma(Map<String, Integer> lemmas, LemmaCache.Entry entry) {
+        if (entry.isFunctionWord() || entry.getNormalForm() == null) {
+            return;
         }
-        return lemmas;
+        lemmas.merge(entry.getNormalForm(), 1, Integer::sum);
     }
 
-    private List<String> splitRusText(String text) {
-        String[] words = text.toLowerCase()
-                .replaceAll("[^А-яЁё\\s]", "")
-                .trim()
-                .split("\\s+");
-        return new ArrayList<>(List.of(words));
+    private LemmaCache.Entry analyzeRusWord(String word) {
+        try {
+            if (isNotRusWord(word)) {
+                return new LemmaCache.Entry(null, true);
+            }
+            List<String> normalForms = russianLuceneMorphology.getNormalForms(word);
+            return new LemmaCache.Entry(normalForms.isEmpty() ? null : normalForms.get(0), false);
+        } catch (Exception e) {
+            System.out.println("Can't get lemmas from word: " + word);
+            return new LemmaCache.Entry(null, false);
+        }
     }
 
-    private List<String> splitEngText(String text) {
-        String[] words = text.toLowerCase()
-                .replaceAll("[^A-z\\s]", "")
-                .trim()
-                .split("\\s+");
-        return new ArrayList<>(List.of(words));
+    private LemmaCache.Entry analyzeEngWord(String word) {
+        try {
+            if (isNotEngWord(word)) {
+                return new LemmaCache.Entry(null, true);
+            }
+            List<String> normalForms = englishLuceneMorphology.getNormalForms(word);
+            return new LemmaCache.Entry(normalForms.isEmpty() ? null : normalForms.get(0), false);
+        } catch (Exception e) {
+            System.out.println("Can't get lemmas from word: " + word);
+            return new LemmaCache.Entry(null, false);
+        }
     }
 
     private boolean isNotRusWord(String word) {
@@ -0,0 +1,52 @@
+package searchengine.utils;
+
+import java.util.Set;
+
+/**
+ * Пропускает страницы, удаленные или замененные в более новых сегментах.
+ */
+public class LivePostingCursor implements PostingCursor {
+    private final PostingCursor cursor;
+    private final Set<Integer> deletedPages;
+
+    public LivePostingCursor(PostingCursor cursor, Set<Integer> deletedPages) {
+        this.cursor = cursor;
+        this.deletedPages = deletedPages;
+        skipDeleted();
+    }
+
+    @Override
+    public int pageId() {
+        return cursor.pageId();
+    }
+
+    @Override
+    public float rank() {
+        return cursor.rank();
+    }
+
+    @Override
+    public int next() {
+        cursor.next();
+        return skipDeleted();
+    }
+
+    @Override
+    public int advance(int target) {
+        cursor.advance(target);
+        return skipDeleted();
+    }
+
+    @Override
+    public int size() {
+        return cursor.size();
+    }
+
+    private int skipDeleted() {
+        int pageId = cursor.pageId();
+        while (pageId != NO_MORE && deletedPages.contains(pageId)) {
+            pageId = cursor.next();
+        }
+        return pageId;
+    }
+}
@@ -0,0 +1,69 @@
+package searchengine.utils;
+
+import java.util.List;
+
+/**
+ * Объединяет курсоры нескольких сегментов в один в порядке возрастания страниц.
+ * Страница живет не больше чем в одном сегменте, поэтому совпадений id нет.
+ */
+public class MergingPostingCursor implements PostingCursor {
+    private final PostingCursor[] cursors;
+    private final int size;
+    private int current;
+
+    public MergingPostingCursor(List<PostingCursor> cursors) {
+        this.cursors = cursors.toArray(new PostingCursor[0]);
+        size = cursors.stream().mapToInt(PostingCursor::size).sum();
+        current = findCurrent();
+    }
+
+    @Override
+    public int pageId() {
+        return current < 0 ? NO_MORE : cursors[current].pageId();
+    }
+
+    @Override
+    public float rank() {
+        return cursors[current].rank();
+    }
+
+    @Override
+    public int next() {
+        if (current < 0) {
+            return NO_MORE;
+        }
+        cursors[current].next();
+        current = findCurrent();
+        return pageId();
+    }
+
+    @Override
+    public int advance(int target) {
+        for (PostingCursor cursor : cursors) {
+            cursor.advance(target);
+        }
+        current = findCurrent();
+        return pageId();
+    }
+
+    /**
+     * Верхняя оценка: сумма размеров списков сегментов, включая удаленные страницы.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private int findCurrent() {
+        int best = -1;
+        int bestPageId = NO_MORE;
+        for (int i = 0; i < cursors.length; i++) {
+            int pageId = cursors[i].pageId();
+            if (pageId < bestPageId) {
+                best = i;
+                bestPageId = pageId;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,46 @@
+package searchengine.utils;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import searchengine.model.PageEntity;
+
+import java.util.Map;
+
+/**
+ * Извлекает при индексации поля, которые нужны поиску: заголовок, текст страницы и краткое описание,
+ * чтобы при поиске не разбирать сохраненный HTML.
+ */
+public class PageFields {
+    static final int MAX_TITLE_LENGTH = 500;
+    static final int MAX_DESCRIPTION_LENGTH = 300;
+
+    /**
+     * text - document.text(), по нему же считаются позиции лемм страницы.
+     */
+    public static void fill(PageEntity page, Document document, String text) {
+        page.setTitle(cut(document.title(), MAX_TITLE_LENGTH));
+        page.setText(text);
+        Element meta = document.selectFirst("meta[name=description]");
+        String description = meta != null ? meta.attr("content").strip() : "";
+        page.setDescription(cut(description.isEmpty() ? text : description, MAX_DESCRIPTION_LENGTH));
+    }
+
+    public static int wordCount(Map<String, TermPositions> lemmas) {
+        int count = 0;
+        for (TermPositions positions : lemmas.values()) {
+            count += positions.size();
+        }
+        return count;
+    }
+
+    /**
+     * Обрезает строку по границе слова.
+     */
+    private static String cut(String value, int maxLength) {
+        if (value.length() <= maxLength) {
+            return value;
+        }
+        int end = value.lastIndexOf(' ', maxLength);
+        return value.substring(0, end > maxLength / 2 ? end : maxLength);
+    }
+}
@@ -4,88 +4,99 @@ import lombok.RequiredArgsConstructor;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.springframework.transaction.support.TransactionTemplate;
 import searchengine.model.*;
-import searchengine.repositories.LemmaRepository;
+import searchengine.repositories.BulkWriter;
+import searchengine.repositories.IndexStorage;
 import searchengine.repositories.PageRepository;
-import searchengine.repositories.IndexRepository;
 import searchengine.repositories.SiteRepository;
 
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 @RequiredArgsConstructor
 public class PageParser {
     private final SiteEntity site;
-    private PageEntity page;
     private final String url;
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
-    private boolean contains;
+    private final LemmaDictionary lemmaDictionary;
+    private final BulkWriter bulkWriter;
+    private final IndexStorage indexStorage;
+    private final TransactionTemplate transactionTemplate;
+    private final Lemmatization lemmatization;
 
     public void parsePage() {
-
-        for (PageEntity page : pageRepository.findAll()) {
-            if (page.getPath().equalsIgnoreCase(url)) {
-                this.page = page;
-                contains = true;
-                break;
-            }
-        }
-        if (contains) {
-            List<SearchIndex> indexList = new ArrayList<>();
-            for (SearchIndex searchIndex : indexRepository.findAll()) {
-                if (searchIndex.getPageID().getId() == page.getId()) {
-                    indexList.add(searchIndex);
-                }
-            }
-            indexRepository.deleteAll(indexList);
-            pageRepository.delete(page);
-        }
-
         Connection connection = Jsoup.connect(url)
                 .ignoreContentType(true)
                 .userAgent(new UserAgent().getUserAgent())
                 .referrer("https://www.google.com");
 
         try {
-            Document document = connection.execute().parse();
-            page = new PageEntity();
+            Connection.Response response = connection.execute().bufferUp();
+            Document document = response.parse();
+            PageEntity page = new PageEntity();
             page.setSiteID(site);
             page.setPath(url);
-            page.setContent(String.valueOf(document));
-            page.setCode(connection.response().statusCode());
-            pageRepository.save(page);
+            document.outputSettings().prettyPrint(false);
+            page.setContent(document.outerHtml());
+            page.setCode(response.statusCode());
+            page.setEtag(response.header("ETag"));
+            page.setLastModified(response.header("Last-Modified"));
+            page.setContentHash(ContentHasher.sha256(response.bodyAsBytes()));
+            String text = document.text();
+            PageFields.fill(page, document, text);
+
+            Map<String, TermPositions> lemmas = lemmatization.getLemmaPositions(text);
+            page.setWordCount(PageFields.wordCount(lemmas));
+            Map<String, LemmaEntity> lemmaEntities = lemmaDictionary.resolve(lemmas.keySet());
+            transactionTemplate.executeWithoutResult(status -> replacePage(page, lemmas, lemmaEntities));
+            indexStorage.commit(site);
+
             site.setStatus(Status.INDEXED);
             site.setStatusTime(LocalDateTime.now());
             siteRepository.save(site);
-
-            Lemmatization lemmatization = new Lemmatization();
-            Map<String, Integer> lemmas = lemmatization.getLemmas(document.text());
-            List<LemmaEntity> lemmaEntityList = new ArrayList<>();
-            List<SearchIndex> searchIndexList = new ArrayList<>();
-
-            for (Map.Entry<String, Integer> lemma : lemmas.entrySet()) {
-                LemmaEntity lemmaEntity = new LemmaEntity();
-                lemmaEntity.setSiteID(site);
-                lemmaEntity.setLemma(lemma.getKey());
-                lemmaEntity.setFrequency(lemma.getValue());
-                lemmaEntityList.add(lemmaEntity);
-
-                SearchIndex searchIndex = new SearchIndex();
-                searchIndex.setPageID(page);
-                searchIndex.setLemmaID(lemmaEntity);
-                searchIndex.setRank(lemma.getValue());
-                searchIndexList.add(searchIndex);
-            }
-            lemmaRepository.saveAll(lemmaEntityList);
-            indexRepository.saveAll(searchIndexList);
         } catch (IOException e) {
             System.out.println(url + "can't be parsed");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Заменяет индекс страницы: старые записи индекса удаляются, частоты их лемм уменьшаются,
+     * леммы, которые больше не встречаются на сайте, удаляются.
+     */
+    private void replacePage(PageEntity page, Map<String, TermPositions> lemmas, Map<String, LemmaEntity> lemmaEntities) {
+        Integer pageId = pageRepository.findIdBySiteAndPath(site, url);
+        Map<Integer, Integer> frequencyDeltas = new HashMap<>();
+        if (pageId != null) {
+            List<Integer> oldLemmaIds = indexStorage.findLemmaIdsByPages(site, List.of(pageId));
+            oldLemmaIds.forEach(lemmaId -> frequencyDeltas.merge(lemmaId, -1, Integer::sum));
+            indexStorage.deleteIndexesByPages(site, List.of(pageId));
+            page.setId(pageId);
+            bulkWriter.updatePages(List.of(page));
+        } else {
+            bulkWriter.insertPages(List.of(page));
+        }
+
+        List<SearchIndex> searchIndexList = new ArrayList<>();
+        for (Map.Entry<String, TermPositions> lemma : lemmas.entrySet()) {
+            LemmaEntity lemmaEntity = lemmaEntities.get(lemma.getKey());
+            SearchIndex searchIndex = new SearchIndex();
+            searchIndex.setPageID(page);
+            searchIndex.setLemmaID(lemmaEntity);
+            searchIndex.setRank(lemma.getValue().size());
+            searchIndex.setPositions(PostingCodec.encodePositions(lemma.getValue()));
+            searchIndexList.add(searchIndex);
+            frequencyDeltas.merge(lemmaEntity.getId(), 1, Integer::sum);
+        }
+        indexStorage.insertIndexes(searchIndexList);
+
+        frequencyDeltas.values().removeIf(delta -> delta == 0);
+        bulkWriter.updateLemmaFrequencies(frequencyDeltas);
+        bulkWriter.deleteUnusedLemmas(frequencyDeltas.keySet());
+    }
+}
@@ -0,0 +1,133 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Длины страниц и итоги по сайтам для BM25, в памяти. Загружаются из базы при первом обращении,
+ * дальше поддерживаются {@link searchengine.repositories.BulkWriter} при записи и удалении страниц,
+ * поэтому оценка результатов поиска не делает запросов к базе.
+ */
+@Component
+@RequiredArgsConstructor
+public class PageStatistics {
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Integer, SiteTotals> sites = new HashMap<>();
+    private int[] pageSiteIds = new int[0];
+    private int[] pageLengths = new int[0];
+    private boolean loaded;
+
+    public synchronized void put(int siteId, int pageId, int length) {
+        ensureLoaded();
+        putLoaded(siteId, pageId, length);
+    }
+
+    public synchronized void remove(Collection<Integer> pageIds) {
+        ensureLoaded();
+        for (int pageId : pageIds) {
+            if (pageId < pageSiteIds.length && pageSiteIds[pageId] != 0) {
+                sites.get(pageSiteIds[pageId]).remove(pageLengths[pageId]);
+                pageSiteIds[pageId] = 0;
+                pageLengths[pageId] = 0;
+            }
+        }
+    }
+
+    public synchronized void removeSite(int siteId) {
+        ensureLoaded();
+        if (sites.remove(siteId) == null) {
+            return;
+        }
+        for (int pageId = 0; pageId < pageSiteIds.length; pageId++) {
+            if (pageSiteIds[pageId] == siteId) {
+                pageSiteIds[pageId] = 0;
+                pageLengths[pageId] = 0;
+            }
+        }
+    }
+
+    public synchronized int getPageCount(int siteId) {
+        ensureLoaded();
+        SiteTotals totals = sites.get(siteId);
+        return totals == null ? 0 : totals.getPageCount();
+    }
+
+    /**
+     * Средняя длина страниц сайта, у которых длина известна.
+     */
+    public synchronized double getAverageLength(int siteId) {
+        ensureLoaded();
+        SiteTotals totals = sites.get(siteId);
+        return totals == null || totals.getMeasuredPages() == 0 ? 0
+                : (double) totals.getTotalLength() / totals.getMeasuredPages();
+    }
+
+    /**
+     * Записывает в lengths длины страниц pageIds[0..size); неизвестная длина заменяется defaultLength.
+     */
+    public synchronized void getLengths(int[] pageIds, int size, int[] lengths, int defaultLength) {
+        ensureLoaded();
+        for (int i = 0; i < size; i++) {
+            int pageId = pageIds[i];
+            int length = pageId < pageLengths.length ? pageLengths[pageId] : 0;
+            lengths[i] = length > 0 ? length : defaultLength;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        jdbcTemplate.query("select id, site_id, coalesce(word_count, 0) from pages", resultSet -> {
+            putLoaded(resultSet.getInt(2), resultSet.getInt(1), resultSet.getInt(3));
+        });
+        loaded = true;
+        System.out.println("Загружены длины страниц: " + sites.values().stream().mapToInt(SiteTotals::getPageCount).sum()
+                + " за " + (System.currentTimeMillis() - start) + " мс");
+    }
+
+    private void putLoaded(int siteId, int pageId, int length) {
+        if (pageId >= pageSiteIds.length) {
+            int capacity = Math.max(pageId + 1, pageSiteIds.length * 3 / 2);
+            pageSiteIds = Arrays.copyOf(pageSiteIds, capacity);
+            pageLengths = Arrays.copyOf(pageLengths, capacity);
+        }
+        if (pageSiteIds[pageId] != 0) {
+            sites.get(pageSiteIds[pageId]).remove(pageLengths[pageId]);
+        }
+        pageSiteIds[pageId] = siteId;
+        pageLengths[pageId] = length;
+        sites.computeIfAbsent(siteId, id -> new SiteTotals()).add(length);
+    }
+
+    @Getter
+    private static class SiteTotals {
+        private int pageCount;
+        private int measuredPages;
+        private long totalLength;
+
+        void add(int length) {
+            pageCount++;
+            if (length > 0) {
+                measuredPages++;
+                totalLength += length;
+            }
+        }
+
+        void remove(int length) {
+            pageCount--;
+            if (length > 0) {
+                measuredPages--;
+                totalLength -= length;
+            }
+        }
+    }
+}
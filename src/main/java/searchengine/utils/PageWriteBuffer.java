@@ -0,0 +1,215 @@
+package searchengine.utils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import searchengine.config.WriterSettings;
+import searchengine.model.LemmaEntity;
+import searchengine.model.PageEntity;
+import searchengine.model.SearchIndex;
+import searchengine.repositories.BulkWriter;
+import searchengine.repositories.IndexStorage;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+@Component
+@RequiredArgsConstructor
+public class PageWriteBuffer {
+    private final BulkWriter bulkWriter;
+    private final IndexStorage indexStorage;
+    private final WriterSettings writerSettings;
+    private final TransactionTemplate transactionTemplate;
+    private final Object pendingLock = new Object();
+    private BlockingQueue<ParsedPage> queue;
+    private ExecutorService writers;
+    private final Map<LemmaDictionary, Integer> pendingBySite = new HashMap<>();
+    private int pending;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(writerSettings.getQueueCapacity());
+        writers = Executors.newFixedThreadPool(writerSettings.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "page-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < writerSettings.getThreads(); i++) {
+            writers.execute(this::writeLoop);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        flush();
+        writers.shutdownNow();
+    }
+
+    /**
+     * onWritten вызывается после фиксации транзакции со страницей, onFailed - если страницу
+     * не удалось записать даже по одной.
+     */
+    public void submit(PageEntity page, Map<String, TermPositions> lemmas, LemmaDictionary lemmaDictionary,
+                       Runnable onWritten, Runnable onFailed) throws InterruptedException {
+        ParsedPage parsedPage = new ParsedPage(page, page.getId() != 0, lemmas, lemmaDictionary, onWritten, onFailed);
+        synchronized (pendingLock) {
+            pending++;
+            pendingBySite.merge(lemmaDictionary, 1, Integer::sum);
+        }
+        try {
+            queue.put(parsedPage);
+        } catch (InterruptedException e) {
+            written(List.of(parsedPage));
+            throw e;
+        }
+    }
+
+    public void flush() throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pending > 0) {
+                pendingLock.wait();
+            }
+        }
+    }
+
+    public void flush(LemmaDictionary lemmaDictionary) throws InterruptedException {
+        synchronized (pendingLock) {
+            while (pendingBySite.containsKey(lemmaDictionary)) {
+                pendingLock.wait();
+            }
+        }
+    }
+
+    private void written(List<ParsedPage> batch) {
+        synchronized (pendingLock) {
+            pending -= batch.size();
+            for (ParsedPage parsedPage : batch) {
+                pendingBySite.computeIfPresent(parsedPage.getLemmaDictionary(),
+                        (dictionary, count) -> count > 1 ? count - 1 : null);
+            }
+            pendingLock.notifyAll();
+        }
+        for (ParsedPage parsedPage : batch) {
+            if (parsedPage.isStored()) {
+                parsedPage.getOnWritten().run();
+            } else {
+                parsedPage.getOnFailed().run();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        List<ParsedPage> batch = new ArrayList<>();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                ParsedPage first = queue.poll(writerSettings.getFlushIntervalMs(), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + writerSettings.getFlushIntervalMs();
+                while (batch.size() < writerSettings.getFlushSize()) {
+                    long timeout = deadline - System.currentTimeMillis();
+                    ParsedPage next = timeout > 0 ? queue.poll(timeout, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                written(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<ParsedPage> batch) {
+        try {
+            writeBatch(batch);
+        } catch (Exception e) {
+            System.out.println("Не удалось записать пакет из " + batch.size() + " страниц, запись по одной");
+            for (ParsedPage parsedPage : batch) {
+                try {
+                    writeBatch(List.of(parsedPage));
+                } catch (Exception pageException) {
+                    System.out.println(parsedPage.getPage().getPath() + " не сохранена: " + pageException.getMessage());
+                }
+            }
+        }
+    }
+
+    private void writeBatch(List<ParsedPage> batch) {
+        Map<LemmaDictionary, Set<String>> wordsByDictionary = new HashMap<>();
+        for (ParsedPage parsedPage : batch) {
+            wordsByDictionary.computeIfAbsent(parsedPage.getLemmaDictionary(), dictionary -> new TreeSet<>())
+                    .addAll(parsedPage.getLemmas().keySet());
+        }
+        Map<LemmaDictionary, Map<String, LemmaEntity>> lemmasByDictionary = new HashMap<>();
+        wordsByDictionary.forEach((dictionary, words) -> lemmasByDictionary.put(dictionary, dictionary.resolve(words)));
+
+        List<PageEntity> newPages = new ArrayList<>();
+        List<PageEntity> changedPages = new ArrayList<>();
+        Map<LemmaDictionary, List<Integer>> changedPageIds = new HashMap<>();
+        for (ParsedPage parsedPage : batch) {
+            if (!parsedPage.isExisting()) {
+                newPages.add(parsedPage.getPage());
+            } else {
+                changedPages.add(parsedPage.getPage());
+                changedPageIds.computeIfAbsent(parsedPage.getLemmaDictionary(), dictionary -> new ArrayList<>())
+                        .add(parsedPage.getPage().getId());
+            }
+        }
+        Map<LemmaDictionary, List<Integer>> replacedLemmaIds = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            changedPageIds.forEach((dictionary, pageIds) -> {
+                replacedLemmaIds.put(dictionary, indexStorage.findLemmaIdsByPages(dictionary.getSite(), pageIds));
+                indexStorage.deleteIndexesByPages(dictionary.getSite(), pageIds);
+            });
+            bulkWriter.updatePages(changedPages);
+            bulkWriter.insertPages(newPages);
+            List<SearchIndex> searchIndexList = new ArrayList<>();
+            for (ParsedPage parsedPage : batch) {
+                Map<String, LemmaEntity> lemmaEntities = lemmasByDictionary.get(parsedPage.getLemmaDictionary());
+                for (Map.Entry<String, TermPositions> lemma : parsedPage.getLemmas().entrySet()) {
+                    SearchIndex searchIndex = new SearchIndex();
+                    searchIndex.setPageID(parsedPage.getPage());
+                    searchIndex.setLemmaID(lemmaEntities.get(lemma.getKey()));
+                    searchIndex.setRank(lemma.getValue().size());
+                    searchIndex.setPositions(PostingCodec.encodePositions(lemma.getValue()));
+                    searchIndexList.add(searchIndex);
+                }
+            }
+            indexStorage.insertIndexes(searchIndexList);
+        });
+        batch.forEach(parsedPage -> parsedPage.setStored(true));
+
+        replacedLemmaIds.forEach(LemmaDictionary::uncountPages);
+
+        for (ParsedPage parsedPage : batch) {
+            Map<String, LemmaEntity> lemmaEntities = lemmasByDictionary.get(parsedPage.getLemmaDictionary());
+            List<LemmaEntity> pageLemmas = new ArrayList<>();
+            parsedPage.getLemmas().keySet().forEach(word -> pageLemmas.add(lemmaEntities.get(word)));
+            parsedPage.getLemmaDictionary().countPage(pageLemmas);
+        }
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class ParsedPage {
+        private final PageEntity page;
+        private final boolean existing;
+        private final Map<String, TermPositions> lemmas;
+        private final LemmaDictionary lemmaDictionary;
+        private final Runnable onWritten;
+        private final Runnable onFailed;
+        @Setter
+        private volatile boolean stored;
+    }
+}
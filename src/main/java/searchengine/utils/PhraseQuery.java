@@ -0,0 +1,109 @@
+package searchengine.utils;
+
+import lombok.Getter;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Фраза из запроса: "слова в кавычках" требует, чтобы леммы шли на странице подряд и в том же
+ * порядке, "слова в кавычках"~N допускает сдвиг каждого слова на N позиций (поиск по близости).
+ * Служебные слова внутри фразы не ищутся, но учитываются в расстояниях.
+ */
+public class PhraseQuery {
+    private static final Pattern PHRASE = Pattern.compile("\"([^\"]+)\"(?:~(\\d+))?");
+    /**
+     * Наибольший допустимый сдвиг слова во фразе; больший считается ошибкой в запросе.
+     */
+    public static final int MAX_SLOP = 100;
+
+    @Getter
+    private final Set<String> lemmas;
+    private final String[] termLemmas;
+    private final int[] termOffsets;
+    private final int slop;
+
+    private PhraseQuery(String[] termLemmas, int[] termOffsets, int slop) {
+        this.termLemmas = termLemmas;
+        this.termOffsets = termOffsets;
+        this.slop = slop;
+        lemmas = new HashSet<>(Arrays.asList(termLemmas));
+    }
+
+    /**
+     * Бросает IllegalArgumentException, если сдвиг фразы больше MAX_SLOP.
+     */
+    public static List<PhraseQuery> parse(String query, Lemmatization lemmatization) {
+        List<PhraseQuery> phrases = new ArrayList<>();
+        Matcher matcher = PHRASE.matcher(query);
+        while (matcher.find()) {
+            List<long[]> terms = new ArrayList<>();
+            Map<String, TermPositions> phraseLemmas = lemmatization.getLemmaPositions(matcher.group(1));
+            List<String> lemmaOrder = new ArrayList<>(phraseLemmas.keySet());
+            for (int i = 0; i < lemmaOrder.size(); i++) {
+                TermPositions positions = phraseLemmas.get(lemmaOrder.get(i));
+                for (int j = 0; j < positions.size(); j++) {
+                    terms.add(new long[]{positions.getPosition(j), i});
+                }
+            }
+            if (terms.size() < 2) {
+                continue;
+            }
+            terms.sort(Comparator.comparingLong(term -> term[0]));
+            String[] termLemmas = new String[terms.size()];
+            int[] termOffsets = new int[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                termLemmas[i] = lemmaOrder.get((int) terms.get(i)[1]);
+                termOffsets[i] = (int) (terms.get(i)[0] - terms.get(0)[0]);
+            }
+            int slop = parseSlop(matcher.group(2));
+            phrases.add(new PhraseQuery(termLemmas, termOffsets, slop));
+        }
+        return phrases;
+    }
+
+    private static int parseSlop(String digits) {
+        if (digits == null) {
+            return 0;
+        }
+        String value = digits.replaceFirst("^0+(?=\\d)", "");
+        long slop = value.length() > 18 ? Long.MAX_VALUE : Long.parseLong(value);
+        if (slop > MAX_SLOP) {
+            throw new IllegalArgumentException("Сдвиг слов во фразе не может быть больше " + MAX_SLOP);
+        }
+        return (int) slop;
+    }
+
+    /**
+     * pagePositions - позиции лемм фразы на странице.
+     */
+    public boolean matches(Map<String, TermPositions> pagePositions) {
+        TermPositions[] terms = new TermPositions[termLemmas.length];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = pagePositions.get(termLemmas[i]);
+            if (terms[i] == null) {
+                return false;
+            }
+        }
+        TermPositions first = terms[0];
+        for (int occurrence = 0; occurrence < first.size(); occurrence++) {
+            int start = first.getPosition(occurrence);
+            if (matchesAt(terms, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesAt(TermPositions[] terms, int start) {
+        for (int i = 1; i < terms.length; i++) {
+            int expected = start + termOffsets[i];
+            int index = terms[i].lowerBound(expected - slop);
+            if (index == terms[i].size() || terms[i].getPosition(index) > expected + slop) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
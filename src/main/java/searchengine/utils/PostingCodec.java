@@ -0,0 +1,163 @@
+package searchengine.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Сжатый формат списка страниц: блоки по BLOCK_SIZE записей, разности id страниц и ранги
+ * в variable-byte кодировке, ранг квантуется с шагом 1 / RANK_QUANTUM. Перед блоками лежит
+ * таблица пропусков (последний id страницы блока, смещение блока), по которой курсор
+ * перескакивает блоки целиком.
+ * <pre>
+ * int count, int blockCount
+ * blockCount * (int lastPageId, int blockOffset)
+ * блоки: vbyte разности id, затем vbyte квантованные ранги
+ * </pre>
+ */
+public class PostingCodec {
+    public static final int BLOCK_SIZE = 128;
+    public static final int RANK_QUANTUM = 4;
+    static final int HEADER_SIZE = 8;
+    static final int SKIP_ENTRY_SIZE = 8;
+
+    public static byte[] encodePostings(long[] postings, int size) {
+        int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        ByteBuffer skipTable = ByteBuffer.allocate(HEADER_SIZE + blockCount * SKIP_ENTRY_SIZE);
+        skipTable.putInt(size).putInt(blockCount);
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream(size * 2);
+        int previous = 0;
+        for (int from = 0; from < size; from += BLOCK_SIZE) {
+            int to = Math.min(from + BLOCK_SIZE, size);
+            int blockOffset = blocks.size();
+            for (int i = from; i < to; i++) {
+                int pageId = pageIdOf(postings[i]);
+                writeVByte(blocks, pageId - previous);
+                previous = pageId;
+            }
+            for (int i = from; i < to; i++) {
+                writeVByte(blocks, quantize(rankOf(postings[i])));
+            }
+            skipTable.putInt(previous).putInt(blockOffset);
+        }
+        byte[] result = new byte[skipTable.capacity() + blocks.size()];
+        System.arraycopy(skipTable.array(), 0, result, 0, skipTable.capacity());
+        System.arraycopy(blocks.toByteArray(), 0, result, skipTable.capacity(), blocks.size());
+        return result;
+    }
+
+    /**
+     * Отсортированный список id: количество, затем разности в variable-byte кодировке.
+     */
+    public static byte[] encodeIds(int[] sortedIds) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(sortedIds.length + 4);
+        writeVByte(out, sortedIds.length);
+        int previous = 0;
+        for (int id : sortedIds) {
+            writeVByte(out, id - previous);
+            previous = id;
+        }
+        return out.toByteArray();
+    }
+
+    public static int[] decodeIds(ByteBuffer buffer, int position) {
+        int[] value = new int[1];
+        position = readVByte(buffer, position, value);
+        int[] ids = new int[value[0]];
+        int previous = 0;
+        for (int i = 0; i < ids.length; i++) {
+            position = readVByte(buffer, position, value);
+            previous += value[0];
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    /**
+     * Вхождения леммы на странице: количество, затем для каждого вхождения разность номеров слов,
+     * расстояние от конца предыдущего слова до начала текущего и длина слова.
+     */
+    public static byte[] encodePositions(TermPositions positions) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(positions.size() * 3 + 1);
+        writeVByte(out, positions.size());
+        int previousPosition = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < positions.size(); i++) {
+            writeVByte(out, positions.getPosition(i) - previousPosition);
+            writeVByte(out, positions.getStartOffset(i) - previousEnd);
+            writeVByte(out, positions.getEndOffset(i) - positions.getStartOffset(i));
+            previousPosition = positions.getPosition(i);
+            previousEnd = positions.getEndOffset(i);
+        }
+        return out.toByteArray();
+    }
+
+    public static TermPositions decodePositions(byte[] bytes) {
+        return decodePositions(ByteBuffer.wrap(bytes), 0);
+    }
+
+    public static TermPositions decodePositions(ByteBuffer buffer, int position) {
+        int[] value = new int[1];
+        position = readVByte(buffer, position, value);
+        TermPositions positions = new TermPositions(value[0]);
+        int count = value[0];
+        int previousPosition = 0;
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            position = readVByte(buffer, position, value);
+            previousPosition += value[0];
+            position = readVByte(buffer, position, value);
+            int start = previousEnd + value[0];
+            position = readVByte(buffer, position, value);
+            previousEnd = start + value[0];
+            positions.add(previousPosition, start, previousEnd);
+        }
+        return positions;
+    }
+
+    /**
+     * Пара (страница, ранг) в одном long: сортировка таких чисел упорядочивает записи по странице.
+     */
+    public static long pack(int pageId, float rank) {
+        return ((long) pageId << 32) | (Float.floatToRawIntBits(rank) & 0xFFFFFFFFL);
+    }
+
+    static int pageIdOf(long posting) {
+        return (int) (posting >>> 32);
+    }
+
+    static float rankOf(long posting) {
+        return Float.intBitsToFloat((int) posting);
+    }
+
+    static int quantize(float rank) {
+        return Math.max(0, Math.round(rank * RANK_QUANTUM));
+    }
+
+    static float dequantize(int quantizedRank) {
+        return (float) quantizedRank / RANK_QUANTUM;
+    }
+
+    static void writeVByte(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Читает число с позиции position в value[0] и возвращает позицию следующего байта.
+     */
+    static int readVByte(ByteBuffer buffer, int position, int[] value) {
+        int result = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = buffer.get(position++);
+            result |= (current & 0x7F) << shift;
+            shift += 7;
+        } while (current < 0);
+        value[0] = result;
+        return position;
+    }
+}
@@ -0,0 +1,25 @@
+package searchengine.utils;
+
+/**
+ * Последовательный обход списка страниц леммы в порядке возрастания id страницы.
+ * Сразу после создания курсор стоит на первой записи.
+ */
+public interface PostingCursor {
+    int NO_MORE = Integer.MAX_VALUE;
+
+    /**
+     * Текущая страница или NO_MORE, если список закончился.
+     */
+    int pageId();
+
+    float rank();
+
+    int next();
+
+    /**
+     * Переходит к первой странице, id которой не меньше target, и возвращает ее id.
+     */
+    int advance(int target);
+
+    int size();
+}
@@ -0,0 +1,105 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import searchengine.dto.Posting;
+
+import java.util.List;
+
+@Getter
+public class PostingList {
+    private final String lemma;
+    private final int[] pageIds;
+    private final float[] ranks;
+
+    public PostingList(String lemma, int[] pageIds, float[] ranks) {
+        this.lemma = lemma;
+        this.pageIds = pageIds;
+        this.ranks = ranks;
+    }
+
+    public static PostingList of(String lemma, List<Posting> postings) {
+        int[] pageIds = new int[postings.size()];
+        float[] ranks = new float[postings.size()];
+        for (int i = 0; i < postings.size(); i++) {
+            pageIds[i] = postings.get(i).getPageId();
+            ranks[i] = postings.get(i).getRank();
+        }
+        return new PostingList(lemma, pageIds, ranks);
+    }
+
+    public int size() {
+        return pageIds.length;
+    }
+
+    public boolean isEmpty() {
+        return pageIds.length == 0;
+    }
+
+    /**
+     * Возвращает первую позицию не раньше from, на которой pageId >= target,
+     * или size(), если такой нет. Шаг поиска удваивается (galloping), затем бинарный поиск.
+     */
+    public int advance(int from, int target) {
+        int size = pageIds.length;
+        if (from >= size || pageIds[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < size && pageIds[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        if (high > size) {
+            high = size;
+        }
+        while (low + 1 < high) {
+            int middle = (low + high) >>> 1;
+            if (pageIds[middle] < target) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return high;
+    }
+
+    public PostingCursor cursor() {
+        return new ArrayCursor();
+    }
+
+    private class ArrayCursor implements PostingCursor {
+        private int position;
+
+        @Override
+        public int pageId() {
+            return position < pageIds.length ? pageIds[position] : NO_MORE;
+        }
+
+        @Override
+        public float rank() {
+            return ranks[position];
+        }
+
+        @Override
+        public int next() {
+            if (position < pageIds.length) {
+                position++;
+            }
+            return pageId();
+        }
+
+        @Override
+        public int advance(int target) {
+            position = PostingList.this.advance(position, target);
+            return pageId();
+        }
+
+        @Override
+        public int size() {
+            return pageIds.length;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package searchengine.utils;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class PostingListIntersector {
+
+    /**
+     * Пересечение по схеме leapfrog: кандидат берется из самого короткого списка, остальные курсоры
+     * догоняют его через advance, а при промахе самый короткий список сам прыгает к найденному id.
+     */
+    public static Intersection intersect(List<PostingCursor> postingCursors) {
+        int listCount = postingCursors.size();
+        if (listCount == 0) {
+            return new Intersection(new int[0], new float[0][0], 0);
+        }
+
+        Integer[] order = new Integer[listCount];
+        for (int i = 0; i < listCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> postingCursors.get(i).size()));
+
+        PostingCursor rarest = postingCursors.get(order[0]);
+        int capacity = rarest.size();
+        int[] pageIds = new int[capacity];
+        float[][] ranks = new float[listCount][capacity];
+        int found = 0;
+
+        int candidate = rarest.pageId();
+        candidates:
+        while (candidate != PostingCursor.NO_MORE) {
+            for (int k = 1; k < listCount; k++) {
+                int pageId = postingCursors.get(order[k]).advance(candidate);
+                if (pageId != candidate) {
+                    candidate = rarest.advance(pageId);
+                    continue candidates;
+                }
+            }
+            pageIds[found] = candidate;
+            for (int k = 0; k < listCount; k++) {
+                ranks[order[k]][found] = postingCursors.get(order[k]).rank();
+            }
+            found++;
+            candidate = rarest.next();
+        }
+        return new Intersection(pageIds, ranks, found);
+    }
+
+    @Getter
+    public static class Intersection {
+        private final int[] pageIds;
+        private final float[][] ranks;
+        private final int size;
+
+        private Intersection(int[] pageIds, float[][] ranks, int size) {
+            this.pageIds = pageIds;
+            this.ranks = ranks;
+            this.size = size;
+        }
+    }
+}
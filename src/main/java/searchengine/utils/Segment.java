@@ -0,0 +1,162 @@
+package searchengine.utils;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Неизменяемый файл индекса сайта, отображенный в память. Содержит словарь лемм
+ * со сжатыми списками страниц в формате {@link PostingCodec}, прямой индекс страница - леммы
+ * с позициями лемм на странице и tombstones - страницы, удаленные или замененные в более старых сегментах.
+ * Сегмент, полученный слиянием, покрывает поколения с firstGeneration по generation.
+ * <pre>
+ * int MAGIC, int VERSION, int firstGeneration, int generation,
+ * int lemmaCount, int pageCount, int tombstoneCount
+ * int[lemmaCount] id лемм, int[lemmaCount + 1] смещения списков страниц
+ * int[pageCount] id страниц, int[pageCount + 1] смещения списков лемм страниц,
+ * int[pageCount + 1] смещения позиций страниц
+ * int[tombstoneCount] удаленные страницы
+ * списки страниц, затем списки лемм страниц ({@link PostingCodec#encodeIds}), затем позиции страниц:
+ * для каждой леммы страницы в порядке id - длина в байтах и {@link PostingCodec#encodePositions}
+ * </pre>
+ */
+public class Segment {
+    static final int MAGIC = 0x53454731;
+    static final int VERSION = 4;
+    static final int HEADER_SIZE = 28;
+
+    @Getter
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    @Getter
+    private final int firstGeneration;
+    @Getter
+    private final int generation;
+    @Getter
+    private final int lemmaCount;
+    @Getter
+    private final int pageCount;
+    private final int tombstoneCount;
+    private final int postingStartsPosition;
+    private final int pageIdsPosition;
+    private final int forwardStartsPosition;
+    private final int positionStartsPosition;
+    private final int tombstonesPosition;
+
+    private Segment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Неизвестный формат сегмента " + file);
+        }
+        firstGeneration = buffer.getInt(8);
+        generation = buffer.getInt(12);
+        lemmaCount = buffer.getInt(16);
+        pageCount = buffer.getInt(20);
+        tombstoneCount = buffer.getInt(24);
+        postingStartsPosition = HEADER_SIZE + lemmaCount * 4;
+        pageIdsPosition = postingStartsPosition + (lemmaCount + 1) * 4;
+        forwardStartsPosition = pageIdsPosition + pageCount * 4;
+        positionStartsPosition = forwardStartsPosition + (pageCount + 1) * 4;
+        tombstonesPosition = positionStartsPosition + (pageCount + 1) * 4;
+    }
+
+    public static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Сегмент " + file + " больше 2 ГБ");
+            }
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int getLemmaId(int index) {
+        return buffer.getInt(HEADER_SIZE + index * 4);
+    }
+
+    public int getPageId(int index) {
+        return buffer.getInt(pageIdsPosition + index * 4);
+    }
+
+    public int indexOfPage(int pageId) {
+        return find(pageIdsPosition, pageCount, pageId);
+    }
+
+    public int[] getTombstones() {
+        int[] tombstones = new int[tombstoneCount];
+        for (int i = 0; i < tombstoneCount; i++) {
+            tombstones[i] = buffer.getInt(tombstonesPosition + i * 4);
+        }
+        return tombstones;
+    }
+
+    public long getSizeInBytes() {
+        return buffer.capacity();
+    }
+
+    public PostingCursor postings(int lemmaId) {
+        int index = find(HEADER_SIZE, lemmaCount, lemmaId);
+        if (index < 0) {
+            return new PostingList(null, new int[0], new float[0]).cursor();
+        }
+        return postingsAt(index);
+    }
+
+    public PostingCursor postingsAt(int index) {
+        return new BlockPostingCursor(buffer, buffer.getInt(postingStartsPosition + index * 4));
+    }
+
+    public int[] lemmaIdsAt(int index) {
+        return PostingCodec.decodeIds(buffer, buffer.getInt(forwardStartsPosition + index * 4));
+    }
+
+    /**
+     * Позиции леммы на странице с порядковым номером index или null, если леммы на странице нет.
+     */
+    public TermPositions positionsAt(int index, int lemmaId) {
+        int[] lemmaIds = lemmaIdsAt(index);
+        int lemmaIndex = Arrays.binarySearch(lemmaIds, lemmaId);
+        if (lemmaIndex < 0) {
+            return null;
+        }
+        int position = buffer.getInt(positionStartsPosition + index * 4);
+        int[] length = new int[1];
+        for (int i = 0; i < lemmaIndex; i++) {
+            position = PostingCodec.readVByte(buffer, position, length) + length[0];
+        }
+        position = PostingCodec.readVByte(buffer, position, length);
+        return length[0] == 0 ? null : PostingCodec.decodePositions(buffer, position);
+    }
+
+    /**
+     * Позиции страницы в том виде, в каком они лежат в файле; используется при слиянии.
+     */
+    public byte[] positionsBytesAt(int index) {
+        int start = buffer.getInt(positionStartsPosition + index * 4);
+        byte[] bytes = new byte[buffer.getInt(positionStartsPosition + (index + 1) * 4) - start];
+        buffer.get(start, bytes);
+        return bytes;
+    }
+
+    private int find(int position, int count, int key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int value = buffer.getInt(position + middle * 4);
+            if (value < key) {
+                low = middle + 1;
+            } else if (value > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,159 @@
+package searchengine.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Собирает содержимое сегмента в памяти и записывает его в файл в формате {@link Segment}.
+ */
+public class SegmentWriter {
+    private final SortedMap<Integer, Postings> postingsByLemma = new TreeMap<>();
+    private final SortedMap<Integer, int[]> lemmaIdsByPage = new TreeMap<>();
+    private final Map<Integer, byte[]> positionsByPage = new HashMap<>();
+    private final SortedSet<Integer> tombstones = new TreeSet<>();
+
+    /**
+     * positions[i] - позиции леммы lemmaIds[i] в формате {@link PostingCodec#encodePositions} или null.
+     */
+    public void addPage(int pageId, int[] lemmaIds, float[] ranks, byte[][] positions) {
+        Integer[] order = new Integer[lemmaIds.length];
+        for (int i = 0; i < lemmaIds.length; i++) {
+            addPosting(lemmaIds[i], pageId, ranks[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> lemmaIds[i]));
+        int[] sortedLemmaIds = new int[lemmaIds.length];
+        ByteArrayOutputStream pagePositions = new ByteArrayOutputStream();
+        for (int i = 0; i < order.length; i++) {
+            sortedLemmaIds[i] = lemmaIds[order[i]];
+            byte[] bytes = positions[order[i]] != null ? positions[order[i]] : new byte[0];
+            PostingCodec.writeVByte(pagePositions, bytes.length);
+            pagePositions.writeBytes(bytes);
+        }
+        addPageLemmas(pageId, sortedLemmaIds, pagePositions.toByteArray());
+    }
+
+    /**
+     * Добавляет запись обратного индекса без прямого; используется при переносе страниц из старого сегмента
+     * вместе с {@link #addPageLemmas}.
+     */
+    public void addPosting(int lemmaId, int pageId, float rank) {
+        postingsByLemma.computeIfAbsent(lemmaId, id -> new Postings()).add(pageId, rank);
+    }
+
+    public void addPageLemmas(int pageId, int[] sortedLemmaIds, byte[] pagePositions) {
+        lemmaIdsByPage.put(pageId, sortedLemmaIds);
+        positionsByPage.put(pageId, pagePositions);
+    }
+
+    public void addTombstones(Collection<Integer> pageIds) {
+        tombstones.addAll(pageIds);
+    }
+
+    /**
+     * bytesPerSecond ограничивает скорость записи, 0 - без ограничения.
+     */
+    public void write(Path file, int firstGeneration, int generation, long bytesPerSecond) throws IOException {
+        int lemmaCount = postingsByLemma.size();
+        int pageCount = lemmaIdsByPage.size();
+        List<byte[]> encodedPostings = new ArrayList<>(lemmaCount);
+        for (Postings postings : postingsByLemma.values()) {
+            postings.sort();
+            encodedPostings.add(PostingCodec.encodePostings(postings.values, postings.size));
+            postings.values = null;
+        }
+        List<byte[]> encodedLemmaIds = new ArrayList<>(pageCount);
+        for (int[] lemmaIds : lemmaIdsByPage.values()) {
+            encodedLemmaIds.add(PostingCodec.encodeIds(lemmaIds));
+        }
+
+        long end = Segment.HEADER_SIZE + lemmaCount * 4L + (lemmaCount + 1) * 4L
+                + pageCount * 4L + (pageCount + 1) * 8L + tombstones.size() * 4L;
+        for (byte[] bytes : encodedPostings) {
+            end += bytes.length;
+        }
+        for (byte[] bytes : encodedLemmaIds) {
+            end += bytes.length;
+        }
+        for (byte[] bytes : positionsByPage.values()) {
+            end += bytes.length;
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Сегмент " + file + " больше 2 ГБ");
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        OutputStream fileOut = Files.newOutputStream(temp);
+        if (bytesPerSecond > 0) {
+            fileOut = new ThrottledOutputStream(fileOut, bytesPerSecond);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(Segment.MAGIC);
+            out.writeInt(Segment.VERSION);
+            out.writeInt(firstGeneration);
+            out.writeInt(generation);
+            out.writeInt(lemmaCount);
+            out.writeInt(pageCount);
+            out.writeInt(tombstones.size());
+            for (int lemmaId : postingsByLemma.keySet()) {
+                out.writeInt(lemmaId);
+            }
+            int position = Segment.HEADER_SIZE + (lemmaCount * 2 + 1) * 4 + (pageCount * 3 + 2) * 4
+                    + tombstones.size() * 4;
+            out.writeInt(position);
+            for (byte[] bytes : encodedPostings) {
+                position += bytes.length;
+                out.writeInt(position);
+            }
+            for (int pageId : lemmaIdsByPage.keySet()) {
+                out.writeInt(pageId);
+            }
+            out.writeInt(position);
+            for (byte[] bytes : encodedLemmaIds) {
+                position += bytes.length;
+                out.writeInt(position);
+            }
+            out.writeInt(position);
+            for (int pageId : lemmaIdsByPage.keySet()) {
+                position += positionsByPage.get(pageId).length;
+                out.writeInt(position);
+            }
+            for (int pageId : tombstones) {
+                out.writeInt(pageId);
+            }
+            for (byte[] bytes : encodedPostings) {
+                out.write(bytes);
+            }
+            for (byte[] bytes : encodedLemmaIds) {
+                out.write(bytes);
+            }
+            for (int pageId : lemmaIdsByPage.keySet()) {
+                out.write(positionsByPage.get(pageId));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Postings {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(int pageId, float rank) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = PostingCodec.pack(pageId, rank);
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+    }
+}
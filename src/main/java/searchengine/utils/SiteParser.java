@@ -1,110 +1,180 @@
 package searchengine.utils;
 
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import org.jsoup.Connection;
-import org.jsoup.HttpStatusException;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import searchengine.dto.PageValidators;
 import searchengine.model.*;
-import searchengine.repositories.LemmaRepository;
-import searchengine.repositories.PageRepository;
-import searchengine.repositories.IndexRepository;
-import searchengine.repositories.SiteRepository;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 @RequiredArgsConstructor
-public class SiteParser extends RecursiveAction {
-    private final String url;
-    private static final CopyOnWriteArrayList<String> hrefList = new CopyOnWriteArrayList<>();
+public class SiteParser {
+    @Getter
     private final SiteEntity siteEntity;
-    private final PageRepository pageRepository;
-    private final SiteRepository siteRepository;
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
-    private Document document;
-
-    @Override
-    @SneakyThrows
-    protected void compute() {
-
-        Thread.sleep(5);
-        Connection connection = Jsoup.connect(url)
-                .ignoreContentType(true)
-                .userAgent(new UserAgent().getUserAgent())
-                .referrer("https://www.google.com");
+    private final CrawlFrontier frontier;
+    private final CrawlPipeline pipeline;
+    private final PageWriteBuffer pageWriteBuffer;
+    private final LemmaDictionary lemmaDictionary;
+    private final KnownPages knownPages;
+    private final Lemmatization lemmatization;
+    private final Set<CrawlFrontier.CrawlTask> unwrittenTasks = ConcurrentHashMap.newKeySet();
+    private volatile boolean stopped;
+    @Getter
+    private volatile String rootError;
+
+    public void crawl() throws InterruptedException {
+        frontier.add(siteEntity.getUrl(), 0);
+        crawlFrontier();
+    }
+
+    public void resume(CrawlCheckpoint checkpoint) throws InterruptedException {
+        frontier.restore(checkpoint.getTasks());
+        crawlFrontier();
+    }
+
+    /**
+     * Страницы, которые еще не обработаны или не записаны в базу, попадают в контрольную точку
+     * вместе с множеством посещенных ссылок, чтобы после перезапуска их загрузили повторно.
+     * Частоты лемм записанных страниц сохраняются в базу до возврата контрольной точки:
+     * страница учитывается в словаре раньше, чем покидает unwrittenTasks.
+     */
+    public CrawlCheckpoint checkpoint() {
+        Set<CrawlFrontier.CrawlTask> tasks = new LinkedHashSet<>(frontier.snapshot());
+        tasks.addAll(unwrittenTasks);
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(frontier.visitedFingerprints(), new ArrayList<>(tasks));
+        lemmaDictionary.flush();
+        return checkpoint;
+    }
 
+    private void crawlFrontier() throws InterruptedException {
+        CrawlFrontier.CrawlTask task;
+        while (!stopped && (task = frontier.take()) != null) {
+            CrawlFrontier.CrawlTask current = task;
+            try {
+                pipeline.fetch(() -> fetchPage(current));
+            } catch (RejectedExecutionException e) {
+                frontier.fetched(current);
+                frontier.complete(current);
+                break;
+            }
+        }
+    }
+
+    public void stop() {
+        stopped = true;
+        frontier.close();
+    }
+
+    private void fetchPage(CrawlFrontier.CrawlTask task) {
+        String url = task.getUrl();
+        PageValidators knownPage = knownPages.get(url);
+        Connection.Response response;
         try {
-            document = connection.execute().parse();
-            PageEntity page = new PageEntity();
-            page.setSiteID(siteEntity);
-            page.setPath(url);
-            page.setContent(String.valueOf(document));
-            page.setCode(connection.response().statusCode());
-            pageRepository.save(page);
-
-            Lemmatization lemmatization = new Lemmatization();
-            Map<String, Integer> lemmas = lemmatization.getLemmas(document.text());
-            List<LemmaEntity> lemmaEntityList = new ArrayList<>();
-            List<SearchIndex> searchIndexList = new ArrayList<>();
-
-            for(Map.Entry<String, Integer> lemma : lemmas.entrySet()){
-
-                LemmaEntity lemmaEntity = new LemmaEntity();
-                lemmaEntity.setSiteID(siteEntity);
-                lemmaEntity.setLemma(lemma.getKey());
-                lemmaEntity.setFrequency(lemma.getValue());
-                lemmaEntityList.add(lemmaEntity);
-
-                SearchIndex searchIndex = new SearchIndex();
-                searchIndex.setPageID(page);
-                searchIndex.setLemmaID(lemmaEntity);
-                searchIndex.setRank(lemma.getValue());
-                searchIndexList.add(searchIndex);
+            Connection connection = Jsoup.connect(url)
+                    .ignoreContentType(true)
+                    .userAgent(new UserAgent().getUserAgent())
+                    .referrer("https://www.google.com");
+            if (knownPage != null && knownPage.getEtag() != null) {
+                connection.header("If-None-Match", knownPage.getEtag());
+            }
+            if (knownPage != null && knownPage.getLastModified() != null) {
+                connection.header("If-Modified-Since", knownPage.getLastModified());
             }
-            lemmaRepository.saveAll(lemmaEntityList);
-            indexRepository.saveAll(searchIndexList);
+            response = connection.execute().bufferUp();
+        } catch (IOException | RuntimeException e) {
+            // Jsoup бросает IllegalArgumentException на некорректный адрес и UncheckedIOException
+            // на оборванное тело ответа; без complete обход ждал бы эту задачу бесконечно
+            System.out.println(url + " can't be fetched: " + e.getMessage());
+            if (task.getDepth() == 0) {
+                rootError = e.getMessage();
+            }
+            frontier.complete(task);
+            return;
+        } finally {
+            frontier.fetched(task);
+        }
 
+        try {
+            if (knownPage != null && response.statusCode() == 304) {
+                knownPages.markSeen(knownPage);
+                pipeline.parse(() -> collectLinksFromStoredPage(task, knownPage));
+            } else {
+                pipeline.parse(() -> parsePage(task, knownPage, response));
+            }
+        } catch (RejectedExecutionException e) {
+            frontier.complete(task);
         }
-        catch (HttpStatusException e) {
+    }
+
+    private void parsePage(CrawlFrontier.CrawlTask task, PageValidators knownPage, Connection.Response response) {
+        String url = task.getUrl();
+        try {
+            String contentHash = ContentHasher.sha256(response.bodyAsBytes());
+            Document document = response.parse();
+            if (knownPage != null) {
+                knownPages.markSeen(knownPage);
+            }
+
+            if (knownPage == null || !contentHash.equals(knownPage.getContentHash())) {
+                PageEntity page = new PageEntity();
+                if (knownPage != null) {
+                    page.setId(knownPage.getId());
+                }
+                page.setSiteID(siteEntity);
+                page.setPath(knownPage != null ? knownPage.getPath() : url);
+                document.outputSettings().prettyPrint(false);
+                page.setContent(document.outerHtml());
+                page.setCode(response.statusCode());
+                page.setEtag(response.header("ETag"));
+                page.setLastModified(response.header("Last-Modified"));
+                page.setContentHash(contentHash);
+                String text = document.text();
+                PageFields.fill(page, document, text);
+
+                Map<String, TermPositions> lemmas = lemmatization.getLemmaPositions(text);
+                page.setWordCount(PageFields.wordCount(lemmas));
+                unwrittenTasks.add(task);
+                pageWriteBuffer.submit(page, lemmas, lemmaDictionary, () -> unwrittenTasks.remove(task),
+                        () -> System.out.println(url + " не записана, останется в контрольной точке обхода"));
+            }
+
+            addLinks(task, document);
+        } catch (IOException e) {
             System.out.println(url + " can't be parsed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            frontier.complete(task);
         }
+    }
 
-        List<String> links = collectLinks(url);
-        List<SiteParser> tasks = new ArrayList<>();
-
-        for (String link : links) {
-            if (!hrefList.contains(link) && !links.isEmpty()) {
-                SiteParser siteParser = new SiteParser(
-                        link,
-                        siteEntity,
-                        pageRepository,
-                        siteRepository,
-                        lemmaRepository,
-                        indexRepository);
-                siteParser.fork();
-                hrefList.add(link);
-                System.out.println("parsing " + link);
-                tasks.add(siteParser);
-            }
+    private void collectLinksFromStoredPage(CrawlFrontier.CrawlTask task, PageValidators knownPage) {
+        try {
+            addLinks(task, Jsoup.parse(knownPages.loadContent(knownPage), task.getUrl()));
+        } finally {
+            frontier.complete(task);
         }
+    }
 
-        for (SiteParser task : tasks) {
-            task.join();
+    private void addLinks(CrawlFrontier.CrawlTask task, Document document) {
+        for (String link : collectLinks(document, task.getUrl())) {
+            if (frontier.add(link, task.getDepth() + 1)) {
+                System.out.println("parsing " + link);
+            }
         }
     }
 
-    @SneakyThrows
-    public  synchronized List<String> collectLinks(String url) {
+    public List<String> collectLinks(Document document, String url) {
 
         List<String> linkList = new ArrayList<>();
-        linkList.add(url);
 
         Elements links = document.select("a[href]");
         for (Element element : links) {
@@ -136,4 +206,4 @@ public class SiteParser extends RecursiveAction {
         }
         return linkList;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,344 @@
+package searchengine.utils;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Индекс одного сайта в виде LSM: новые страницы копятся в памяти и при flush записываются
+ * новым неизменяемым сегментом, удаления записываются tombstones, запросы обходят все сегменты,
+ * а фоновое слияние объединяет соседние сегменты одного уровня размера.
+ */
+public class SiteSegments {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long MIN_LEVEL_SIZE = 64 * 1024;
+
+    @Getter
+    private final Path directory;
+    private final int flushPages;
+    private final int mergeFactor;
+    private final Map<Integer, PendingPage> pendingPages = new HashMap<>();
+    private final Set<Integer> pendingTombstones = new HashSet<>();
+    private final List<Integer> pendingLogIds = new ArrayList<>();
+    private final List<Integer> flushedLogIds = new ArrayList<>();
+    private volatile List<LiveSegment> segments = List.of();
+    private int generation;
+    private boolean merging;
+
+    public SiteSegments(Path directory, int flushPages, int mergeFactor) throws IOException {
+        this.directory = directory;
+        this.flushPages = flushPages;
+        this.mergeFactor = Math.max(mergeFactor, 2);
+        Files.createDirectories(directory);
+        List<Segment> opened = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(SEGMENT_SUFFIX)) {
+                    opened.add(Segment.open(file));
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        opened.sort(Comparator.comparingInt(Segment::getGeneration));
+        List<Segment> current = new ArrayList<>();
+        for (Segment segment : opened) {
+            // сегменты, уже вошедшие в результат слияния, остаются на диске только после сбоя
+            while (!current.isEmpty() && current.get(current.size() - 1).getGeneration() >= segment.getFirstGeneration()) {
+                Files.deleteIfExists(current.remove(current.size() - 1).getFile());
+            }
+            current.add(segment);
+            generation = Math.max(generation, segment.getGeneration());
+        }
+        segments = withDeletedPages(current);
+    }
+
+    /**
+     * logId - запись журнала, по которой страницу можно восстановить, пока она не попала в сегмент.
+     */
+    public synchronized boolean add(int pageId, int[] lemmaIds, float[] ranks, byte[][] positions, int logId)
+            throws IOException {
+        pendingPages.put(pageId, new PendingPage(lemmaIds, ranks, positions));
+        pendingLogIds.add(logId);
+        return pendingPages.size() >= flushPages && flush();
+    }
+
+    public synchronized void delete(Collection<Integer> pageIds, Collection<Integer> logIds) {
+        for (Integer pageId : pageIds) {
+            pendingPages.remove(pageId);
+            pendingTombstones.add(pageId);
+        }
+        pendingLogIds.addAll(logIds);
+    }
+
+    /**
+     * Записи журнала, изменения по которым уже лежат в сегментах на диске; после вызова список пуст.
+     */
+    public synchronized List<Integer> takeFlushedLogIds() {
+        List<Integer> logIds = new ArrayList<>(flushedLogIds);
+        flushedLogIds.clear();
+        return logIds;
+    }
+
+    public synchronized List<Integer> findLemmaIds(Collection<Integer> pageIds) {
+        List<Integer> lemmaIds = new ArrayList<>();
+        for (Integer pageId : pageIds) {
+            PendingPage pendingPage = pendingPages.get(pageId);
+            int[] pageLemmaIds = pendingPage != null ? pendingPage.getLemmaIds()
+                    : pendingTombstones.contains(pageId) ? new int[0] : findStoredLemmaIds(pageId);
+            for (int lemmaId : pageLemmaIds) {
+                lemmaIds.add(lemmaId);
+            }
+        }
+        return lemmaIds;
+    }
+
+    public synchronized Map<Integer, Map<Integer, TermPositions>> findPositions(Collection<Integer> pageIds,
+                                                                               Collection<Integer> lemmaIds) {
+        Map<Integer, Map<Integer, TermPositions>> positions = new HashMap<>();
+        for (Integer pageId : pageIds) {
+            Map<Integer, TermPositions> pagePositions = new HashMap<>();
+            PendingPage pendingPage = pendingPages.get(pageId);
+            if (pendingPage != null) {
+                for (int i = 0; i < pendingPage.getLemmaIds().length; i++) {
+                    byte[] bytes = pendingPage.getPositions()[i];
+                    if (bytes != null && lemmaIds.contains(pendingPage.getLemmaIds()[i])) {
+                        pagePositions.put(pendingPage.getLemmaIds()[i], PostingCodec.decodePositions(bytes));
+                    }
+                }
+            } else if (!pendingTombstones.contains(pageId)) {
+                Segment segment = null;
+                int index = -1;
+                List<LiveSegment> current = segments;
+                for (int i = current.size() - 1; i >= 0 && index < 0; i--) {
+                    if (current.get(i).getDeletedPages().contains(pageId)) {
+                        break;
+                    }
+                    segment = current.get(i).getSegment();
+                    index = segment.indexOfPage(pageId);
+                }
+                for (Integer lemmaId : lemmaIds) {
+                    TermPositions lemmaPositions = index >= 0 ? segment.positionsAt(index, lemmaId) : null;
+                    if (lemmaPositions != null) {
+                        pagePositions.put(lemmaId, lemmaPositions);
+                    }
+                }
+            }
+            if (!pagePositions.isEmpty()) {
+                positions.put(pageId, pagePositions);
+            }
+        }
+        return positions;
+    }
+
+    public PostingCursor postings(int lemmaId) {
+        List<PostingCursor> cursors = new ArrayList<>();
+        for (LiveSegment liveSegment : segments) {
+            PostingCursor cursor = liveSegment.getSegment().postings(lemmaId);
+            if (cursor.size() == 0) {
+                continue;
+            }
+            cursors.add(liveSegment.getDeletedPages().isEmpty() ? cursor
+                    : new LivePostingCursor(cursor, liveSegment.getDeletedPages()));
+        }
+        if (cursors.isEmpty()) {
+            return new PostingList(null, new int[0], new float[0]).cursor();
+        }
+        return cursors.size() == 1 ? cursors.get(0) : new MergingPostingCursor(cursors);
+    }
+
+    /**
+     * Записывает накопленные страницы и tombstones новым сегментом. Возвращает true, если сегмент создан.
+     */
+    public synchronized boolean flush() throws IOException {
+        if (pendingPages.isEmpty() && pendingTombstones.isEmpty()) {
+            return false;
+        }
+        SegmentWriter writer = new SegmentWriter();
+        pendingPages.forEach((pageId, page) ->
+                writer.addPage(pageId, page.getLemmaIds(), page.getRanks(), page.getPositions()));
+        if (!segments.isEmpty()) {
+            writer.addTombstones(pendingTombstones);
+        }
+        int segmentGeneration = generation + 1;
+        Path file = segmentFile(segmentGeneration);
+        writer.write(file, segmentGeneration, segmentGeneration, 0);
+        Segment segment = Segment.open(file);
+        generation = segmentGeneration;
+        List<Segment> current = segmentList();
+        current.add(segment);
+        segments = withDeletedPages(current);
+        pendingPages.clear();
+        pendingTombstones.clear();
+        flushedLogIds.addAll(pendingLogIds);
+        pendingLogIds.clear();
+        return true;
+    }
+
+    /**
+     * Сливает соседние сегменты одного уровня (уровень - логарифм размера по основанию mergeFactor),
+     * пока такие находятся. Запись идет со скоростью не выше bytesPerSecond.
+     */
+    public void mergeSegments(long bytesPerSecond) throws IOException {
+        List<LiveSegment> run;
+        while ((run = startMerge()) != null) {
+            try {
+                merge(run, bytesPerSecond);
+            } finally {
+                synchronized (this) {
+                    merging = false;
+                }
+            }
+        }
+    }
+
+    public synchronized void deleteFiles() throws IOException {
+        segments = List.of();
+        pendingPages.clear();
+        pendingTombstones.clear();
+        pendingLogIds.clear();
+        flushedLogIds.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    private synchronized List<LiveSegment> startMerge() {
+        if (merging) {
+            return null;
+        }
+        List<LiveSegment> current = segments;
+        int runStart = 0;
+        for (int i = 1; i <= current.size(); i++) {
+            if (i == current.size() || level(current.get(i)) != level(current.get(runStart))) {
+                runStart = i;
+            } else if (i - runStart + 1 == mergeFactor) {
+                merging = true;
+                return new ArrayList<>(current.subList(runStart, i + 1));
+            }
+        }
+        return null;
+    }
+
+    private void merge(List<LiveSegment> run, long bytesPerSecond) throws IOException {
+        SegmentWriter writer = new SegmentWriter();
+        boolean includesOldest = segments.get(0).getSegment() == run.get(0).getSegment();
+        for (LiveSegment liveSegment : run) {
+            Segment segment = liveSegment.getSegment();
+            Set<Integer> deletedPages = liveSegment.getDeletedPages();
+            for (int i = 0; i < segment.getLemmaCount(); i++) {
+                int lemmaId = segment.getLemmaId(i);
+                PostingCursor postings = segment.postingsAt(i);
+                for (int pageId = postings.pageId(); pageId != PostingCursor.NO_MORE; pageId = postings.next()) {
+                    if (!deletedPages.contains(pageId)) {
+                        writer.addPosting(lemmaId, pageId, postings.rank());
+                    }
+                }
+            }
+            for (int i = 0; i < segment.getPageCount(); i++) {
+                if (!deletedPages.contains(segment.getPageId(i))) {
+                    writer.addPageLemmas(segment.getPageId(i), segment.lemmaIdsAt(i), segment.positionsBytesAt(i));
+                }
+            }
+            if (!includesOldest) {
+                writer.addTombstones(Arrays.stream(segment.getTombstones()).boxed().toList());
+            }
+        }
+        Segment first = run.get(0).getSegment();
+        Segment last = run.get(run.size() - 1).getSegment();
+        Path file = segmentFile(last.getGeneration());
+        Path mergedFile = file.resolveSibling(file.getFileName() + ".merged");
+        writer.write(mergedFile, first.getFirstGeneration(), last.getGeneration(), bytesPerSecond);
+
+        synchronized (this) {
+            Files.move(mergedFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Segment merged = Segment.open(file);
+            List<Segment> current = segmentList();
+            int start = current.indexOf(first);
+            current.subList(start, start + run.size()).clear();
+            current.add(start, merged);
+            segments = withDeletedPages(current);
+            for (LiveSegment liveSegment : run) {
+                if (liveSegment.getSegment() != last) {
+                    Files.deleteIfExists(liveSegment.getSegment().getFile());
+                }
+            }
+        }
+        System.out.println("Слияние сегментов " + directory + ": " + run.size() + " -> 1");
+    }
+
+    private int[] findStoredLemmaIds(int pageId) {
+        List<LiveSegment> current = segments;
+        for (int i = current.size() - 1; i >= 0; i--) {
+            LiveSegment liveSegment = current.get(i);
+            if (liveSegment.getDeletedPages().contains(pageId)) {
+                return new int[0];
+            }
+            int index = liveSegment.getSegment().indexOfPage(pageId);
+            if (index >= 0) {
+                return liveSegment.getSegment().lemmaIdsAt(index);
+            }
+        }
+        return new int[0];
+    }
+
+    private int level(LiveSegment liveSegment) {
+        long size = Math.max(liveSegment.getSegment().getSizeInBytes(), MIN_LEVEL_SIZE);
+        return (int) (Math.log((double) size / MIN_LEVEL_SIZE) / Math.log(mergeFactor));
+    }
+
+    private List<Segment> segmentList() {
+        List<Segment> list = new ArrayList<>();
+        segments.forEach(liveSegment -> list.add(liveSegment.getSegment()));
+        return list;
+    }
+
+    /**
+     * Для каждого сегмента собирает tombstones всех более новых сегментов.
+     */
+    private static List<LiveSegment> withDeletedPages(List<Segment> segmentList) {
+        LiveSegment[] result = new LiveSegment[segmentList.size()];
+        Set<Integer> deletedPages = Set.of();
+        for (int i = segmentList.size() - 1; i >= 0; i--) {
+            result[i] = new LiveSegment(segmentList.get(i), deletedPages);
+            int[] tombstones = segmentList.get(i).getTombstones();
+            if (tombstones.length > 0) {
+                Set<Integer> olderDeletedPages = new HashSet<>(deletedPages);
+                for (int pageId : tombstones) {
+                    olderDeletedPages.add(pageId);
+                }
+                deletedPages = olderDeletedPages;
+            }
+        }
+        return List.of(result);
+    }
+
+    private Path segmentFile(int segmentGeneration) {
+        return directory.resolve(SEGMENT_PREFIX + segmentGeneration + SEGMENT_SUFFIX);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class LiveSegment {
+        private final Segment segment;
+        private final Set<Integer> deletedPages;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class PendingPage {
+        private final int[] lemmaIds;
+        private final float[] ranks;
+        private final byte[][] positions;
+    }
+}
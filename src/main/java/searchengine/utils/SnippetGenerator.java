@@ -2,177 +2,165 @@ package searchengine.utils;
 
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
-import lombok.Setter;
-import lombok.extern.slf4j.Slf4j;
-import org.jsoup.Jsoup;
-import org.jsoup.safety.Safelist;
-import org.springframework.stereotype.Component;
+import searchengine.config.SnippetSettings;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
-@Slf4j
-@Component
-@Getter
-@Setter
-@RequiredArgsConstructor
+/**
+ * Строит сниппет по сохраненным при индексации позициям лемм запроса: фрагменты текста
+ * вырезаются вокруг вхождений по их смещениям, без повторной лемматизации страницы.
+ * Состояния нет, все входные данные передаются в вызов, поэтому сниппеты можно строить параллельно.
+ */
 public class SnippetGenerator {
-    private String text;
-    private List<String> queryWords;
-    private final Lemmatization lemmatization;
-    private final Integer SNIPPET_LENGTH = 100;
-    private final Integer MAX_FULL_SNIPPET_LENGTH = 1000;
-
-    public void setText(String text) {
-        this.text = Jsoup
-                .clean(text, Safelist.simpleText())
-                .replaceAll("[^A-za-zА-Яа-яЁё\\d\\s,.!]+", " ")
-                .replaceAll("\\s+", " ");
-    }
+    /**
+     * text - текст страницы, на который указывают смещения hits; hits - позиции лемм запроса на странице;
+     * settings задает длину фрагментов и сниппета.
+     */
+    public static String generateSnippet(String text, List<TermPositions> hits, SnippetSettings settings) {
+        int[][] spans = collectSpans(text, hits);
+        if (spans.length == 0) {
+            return "";
+        }
 
-    public Map<Integer, String> getWordsAndPos( String text) {
-        Map<Integer, String> words = new HashMap<>();
-        int pos = 0;
-        int index = text.indexOf(" ");
-        while (index >= 0) {
-            String word = text.substring(pos, index);
-            word = word.replaceAll("\\P{L}+", "");
-            if (!word.isEmpty()) {
-                words.put(pos, word);
+        List<Fragment> fragments = new ArrayList<>();
+        int first = 0;
+        while (first < spans.length) {
+            int start = fragmentStart(text, spans[first][0], settings.getFragmentLength());
+            int end = Math.min(spans[first][1] + settings.getFragmentLength() / 2, text.length());
+            int last = first + 1;
+            while (last < spans.length && spans[last][0] < end
+                    && spans[last][1] - start <= settings.getMaxFragmentLength()) {
+                end = Math.max(end, Math.min(spans[last][1] + settings.getFragmentLength() / 2, text.length()));
+                last++;
             }
-            pos = index + 1;
-            index = text.indexOf(" ", pos);
-        }
-        String lastWord = text.substring(pos);
-        lastWord = lastWord.replaceAll("\\P{L}+", "");
-        if (!lastWord.isEmpty()) {
-            words.put(pos, lastWord);
+            fragments.add(new Fragment(start, wordEnd(text, end), first, last, countLemmas(spans, first, last)));
+            first = last;
         }
-        return words;
-    }
+        fragments.sort(Comparator.comparingInt(Fragment::getLemmaCount).reversed()
+                .thenComparing(Comparator.comparingInt(Fragment::getHitCount).reversed())
+                .thenComparingInt(Fragment::getStart));
 
-    public Map<Integer, Set<String>> getLemmasAndPos() {
-        Map<Integer, String> words = getWordsAndPos(text);
-        Map<Integer, Set<String>> lemmas = new HashMap<>();
-        for (Map.Entry<Integer, String> entry : words.entrySet()) {
-            Set<String> lemmaSet = lemmatization.getLemmas(entry.getValue()).keySet();
-            if (!lemmaSet.isEmpty()) {
-                lemmas.put(entry.getKey(), lemmaSet);
+        StringBuilder sb = new StringBuilder();
+        for (Fragment fragment : fragments) {
+            sb.append("&#8195");
+            appendHighlighted(sb, text, spans, fragment);
+            sb.append(" . . .").append("<br><br>");
+            if (sb.length() >= settings.getMaxLength()) {
+                break;
             }
         }
-        return lemmas;
+        return sb.toString();
     }
 
-    public Map<Integer, String> getDirtyFormsAndPos() {
-        Map<Integer, String> dirtyForms = new TreeMap<>();
-        Set<String> uniqueValues = new HashSet<>();
-        for (String queryWord : queryWords) {
-            for (Map.Entry<Integer, Set<String>> entry : getLemmasAndPos().entrySet()) {
-                if (entry.getValue().contains(queryWord.toLowerCase())) {
-                    String word = getWordsAndPos(text).get(entry.getKey());
-                    dirtyForms.put(entry.getKey(), word);
+    /**
+     * Вхождения всех лемм по возрастанию смещения: {начало, конец, номер леммы}. Вхождения,
+     * которые не попадают на слово текста, отбрасываются.
+     */
+    private static int[][] collectSpans(String text, List<TermPositions> hits) {
+        List<int[]> spans = new ArrayList<>();
+        for (int lemma = 0; lemma < hits.size(); lemma++) {
+            TermPositions positions = hits.get(lemma);
+            for (int i = 0; i < positions.size(); i++) {
+                int start = positions.getStartOffset(i);
+                int end = positions.getEndOffset(i);
+                if (isWord(text, start, end)) {
+                    spans.add(new int[]{start, end, lemma});
                 }
             }
         }
-
-        for (Iterator<Map.Entry<Integer, String>> iterator = dirtyForms.entrySet().iterator(); iterator.hasNext();) {
-            Map.Entry<Integer, String> entry = iterator.next();
-            String value = entry.getValue();
-            if (uniqueValues.contains(value)) {
-                iterator.remove();
-            } else {
-                uniqueValues.add(value);
-            }
-        }
-        return dirtyForms;
+        spans.sort(Comparator.comparingInt(span -> span[0]));
+        return spans.toArray(new int[0][]);
     }
 
-    public String generateSnippets() {
-        Map<Integer, String> dirtyForms = getDirtyFormsAndPos();
-        List<Integer> sortedPositions = new ArrayList<>(dirtyForms.keySet());
-        Collections.sort(sortedPositions);
-
-        Map<String, Integer> markedSnipped = cuttingSnippetFromText(dirtyForms, sortedPositions);
-
-        Map<String, Integer> resultBoldedList = boldText(markedSnipped, new ArrayList<>(dirtyForms.values()));
-        StringBuilder sb = getResultSnippet(resultBoldedList);
-
-        return sb.toString();
+    private static boolean isWord(String text, int start, int end) {
+        return start >= 0 && end <= text.length() && start < end
+                && Character.isLetter(text.charAt(start)) && Character.isLetter(text.charAt(end - 1))
+                && (start == 0 || !Character.isLetter(text.charAt(start - 1)))
+                && (end == text.length() || !Character.isLetter(text.charAt(end)));
     }
 
-    private Map<String, Integer> cuttingSnippetFromText(Map<Integer, String> dirtyForms,  List<Integer> sortedPositions) {
-        String prevSnippet = "";
-        Map<String, Integer> markedSnipped = new HashMap<>();
-        int totalLength = 0;
-        int prevPos = -1;
-        int start = -1;
+    private static int countLemmas(int[][] spans, int first, int last) {
+        Set<Integer> lemmas = new HashSet<>();
+        for (int i = first; i < last; i++) {
+            lemmas.add(spans[i][2]);
+        }
+        return lemmas.size();
+    }
 
-        for (Integer pos : sortedPositions) {
-            if (prevPos == -1) {
-                start = getLastDotPositionInText(pos);
-            } else {
-                int gap = pos - prevPos - dirtyForms.get(prevPos).length();
-                if (gap > SNIPPET_LENGTH) {
-                    start = getLastDotPositionInText(pos);
-                    markedSnipped.put(prevSnippet, 0);
+    /**
+     * Начало предложения, если оно не дальше половины длины сниппета, иначе начало слова.
+     */
+    private static int fragmentStart(String text, int hitStart, int fragmentLength) {
+        int limit = Math.max(hitStart - fragmentLength / 2, 0);
+        for (int i = hitStart - 1; i >= limit; i--) {
+            char c = text.charAt(i);
+            if (c == '.' || c == '!' || c == '?') {
+                int start = i + 1;
+                while (start < hitStart && Character.isWhitespace(text.charAt(start))) {
+                    start++;
                 }
+                return start;
             }
-
-            int end = Math.min(pos + dirtyForms.get(pos).length() + SNIPPET_LENGTH / 2, text.length());
-            prevSnippet = text.substring(start, end);
-            totalLength = totalLength + prevSnippet.length();
-
-            if (totalLength >= MAX_FULL_SNIPPET_LENGTH) {
-                break;
-            }
-            prevPos = pos;
         }
+        int start = limit;
+        while (start > 0 && start < hitStart && !Character.isWhitespace(text.charAt(start - 1))) {
+            start++;
+        }
+        return start;
+    }
 
-        if (!prevSnippet.isEmpty()) {
-            markedSnipped.put(prevSnippet, 0);
+    private static int wordEnd(String text, int end) {
+        int limit = Math.min(end + 20, text.length());
+        while (end < limit && !Character.isWhitespace(text.charAt(end))) {
+            end++;
         }
-        return markedSnipped;
+        return end;
     }
 
-    private StringBuilder getResultSnippet( Map<String, Integer> resultBoldedList) {
-        StringBuilder sb = new StringBuilder();
-        for (String s : resultBoldedList.keySet()) {
-            sb.append("&#8195").append(s).append(" . . .").append("<br><br>");
-            if (sb.length() >= MAX_FULL_SNIPPET_LENGTH) {
-                break;
+    private static void appendHighlighted(StringBuilder sb, String text, int[][] spans, Fragment fragment) {
+        int position = fragment.getStart();
+        for (int i = fragment.getFirstHit(); i < fragment.getLastHit(); i++) {
+            if (spans[i][0] < position || spans[i][1] > fragment.getEnd()) {
+                continue;
             }
+            appendEscaped(sb, text, position, spans[i][0]);
+            sb.append("<b>");
+            appendEscaped(sb, text, spans[i][0], spans[i][1]);
+            sb.append("</b>");
+            position = spans[i][1];
         }
-        return sb;
+        appendEscaped(sb, text, position, fragment.getEnd());
     }
 
-    private int getLastDotPositionInText(Integer pos) {
-        int lastDotPosition = text.substring(0, pos).lastIndexOf(".") + 2;
-        if (lastDotPosition >= 2 && (pos - lastDotPosition) <= SNIPPET_LENGTH) {
-            return lastDotPosition;
-        } else {
-            return pos;
-        }
+    public static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        appendEscaped(sb, text, 0, text.length());
+        return sb.toString();
     }
 
-    private Map<String, Integer> boldText(Map<String, Integer> source, List<String> words) {
-        Map<String, Integer> resultMap = new HashMap<>();
-        if (source == null)
-            return resultMap;
-        for (String key : source.keySet()) {
-            int count = 0;
-            for (String word : words) {
-                if (key.contains(word)) {
-                    key = key.replaceAll(word, "<b>" + word + "</b>");
-                    count++;
-                }
+    private static void appendEscaped(StringBuilder sb, String text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> sb.append("&lt;");
+                case '>' -> sb.append("&gt;");
+                case '&' -> sb.append("&amp;");
+                default -> sb.append(c);
             }
-            resultMap.put(key, count);
         }
+    }
 
-        return resultMap.entrySet()
-                .stream()
-                .sorted(Collections.reverseOrder(Map.Entry.comparingByValue()))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
-                        (oldValue, newValue) -> oldValue, LinkedHashMap::new));
+    @Getter
+    @RequiredArgsConstructor
+    private static class Fragment {
+        private final int start;
+        private final int end;
+        private final int firstHit;
+        private final int lastHit;
+        private final int lemmaCount;
+
+        int getHitCount() {
+            return lastHit - firstHit;
+        }
     }
-}
\ No newline at end of file
+}
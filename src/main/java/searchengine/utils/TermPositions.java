@@ -0,0 +1,70 @@
+package searchengine.utils;
+
+import java.util.Arrays;
+
+/**
+ * Вхождения леммы на странице: порядковые номера слов в тексте страницы (считаются все слова,
+ * включая служебные) и границы слов в символах. Номера слов идут по возрастанию.
+ */
+public class TermPositions {
+    private int[] positions;
+    private int[] startOffsets;
+    private int[] endOffsets;
+    private int size;
+
+    public TermPositions() {
+        this(4);
+    }
+
+    public TermPositions(int capacity) {
+        positions = new int[capacity];
+        startOffsets = new int[capacity];
+        endOffsets = new int[capacity];
+    }
+
+    public void add(int position, int startOffset, int endOffset) {
+        if (size == positions.length) {
+            int capacity = Math.max(size * 2, 4);
+            positions = Arrays.copyOf(positions, capacity);
+            startOffsets = Arrays.copyOf(startOffsets, capacity);
+            endOffsets = Arrays.copyOf(endOffsets, capacity);
+        }
+        positions[size] = position;
+        startOffsets[size] = startOffset;
+        endOffsets[size] = endOffset;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getPosition(int index) {
+        return positions[index];
+    }
+
+    public int getStartOffset(int index) {
+        return startOffsets[index];
+    }
+
+    public int getEndOffset(int index) {
+        return endOffsets[index];
+    }
+
+    /**
+     * Индекс первого вхождения с номером слова не меньше position или size(), если таких нет.
+     */
+    public int lowerBound(int position) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
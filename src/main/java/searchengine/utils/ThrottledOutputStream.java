@@ -0,0 +1,46 @@
+package searchengine.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Ограничивает скорость записи, чтобы фоновое слияние сегментов не забирало весь диск у поиска.
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+    private final long bytesPerSecond;
+    private final long start = System.nanoTime();
+    private long written;
+
+    public ThrottledOutputStream(OutputStream out, long bytesPerSecond) {
+        super(out);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        throttle(1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        throttle(length);
+    }
+
+    private void throttle(int length) throws IOException {
+        written += length;
+        long expectedNanos = written * 1_000_000_000L / bytesPerSecond;
+        long sleepMillis = (expectedNanos - (System.nanoTime() - start)) / 1_000_000;
+        if (sleepMillis > 0) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Запись сегмента прервана");
+            }
+        }
+    }
+}
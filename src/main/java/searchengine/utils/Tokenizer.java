@@ -0,0 +1,65 @@
+package searchengine.utils;
+
+import java.util.Arrays;
+
+/**
+ * Однопроходное разбиение текста на слова: слово - непрерывная последовательность букв
+ * одного алфавита (кириллица с Ё или латиница). Слова передаются в нижнем регистре
+ * вместе с позициями в исходном тексте.
+ */
+public class Tokenizer {
+    public enum Script { CYRILLIC, LATIN }
+
+    @FunctionalInterface
+    public interface TokenConsumer {
+        void accept(String word, Script script, int start, int end);
+    }
+
+    public static void tokenize(CharSequence text, TokenConsumer consumer) {
+        int length = text.length();
+        char[] buffer = new char[64];
+        int start = -1;
+        Script tokenScript = null;
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            Script script = scriptOf(c);
+            if (script != tokenScript && start >= 0) {
+                consumer.accept(new String(buffer, 0, i - start), tokenScript, start, i);
+                start = -1;
+            }
+            if (script == null) {
+                tokenScript = null;
+                continue;
+            }
+            if (start < 0) {
+                start = i;
+                tokenScript = script;
+            }
+            int position = i - start;
+            if (position == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[position] = toLowerCase(c);
+        }
+    }
+
+    private static Script scriptOf(char c) {
+        if ((c >= 'а' && c <= 'я') || (c >= 'А' && c <= 'Я') || c == 'ё' || c == 'Ё') {
+            return Script.CYRILLIC;
+        }
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+            return Script.LATIN;
+        }
+        return null;
+    }
+
+    private static char toLowerCase(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        if (c >= 'А' && c <= 'Я') {
+            return (char) (c + ('а' - 'А'));
+        }
+        return c == 'Ё' ? 'ё' : c;
+    }
+}
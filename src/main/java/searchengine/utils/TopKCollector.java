@@ -0,0 +1,140 @@
+package searchengine.utils;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+public class TopKCollector {
+    private static final int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    private int[] pageIds;
+    private float[] scores;
+    private int size;
+    @Getter
+    private int totalHits;
+
+    /**
+     * capacity приходит из параметров запроса, поэтому массивы кучи растут по мере сбора
+     * результатов и не бывают больше числа найденных страниц.
+     */
+    public TopKCollector(int capacity) {
+        this.capacity = Math.max(capacity, 0);
+        this.pageIds = new int[Math.min(this.capacity, INITIAL_SIZE)];
+        this.scores = new float[pageIds.length];
+    }
+
+    public void collect(int pageId, float score) {
+        totalHits++;
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            if (size == pageIds.length) {
+                int length = (int) Math.min((long) size * 2, capacity);
+                pageIds = Arrays.copyOf(pageIds, length);
+                scores = Arrays.copyOf(scores, length);
+            }
+            pageIds[size] = pageId;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (isLower(pageIds[0], scores[0], pageId, score)) {
+            pageIds[0] = pageId;
+            scores[0] = score;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Оценка, которую должна превысить страница, чтобы попасть в результат,
+     * или минус бесконечность, пока коллектор не заполнен.
+     */
+    public float getMinCompetitiveScore() {
+        return capacity > 0 && size == capacity ? scores[0] : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Учитывает найденные страницы, которые заведомо не попадут в результат.
+     */
+    public void countHits(int hits) {
+        totalHits += hits;
+    }
+
+    /**
+     * Разбирает кучу и возвращает результаты по убыванию релевантности.
+     * После вызова коллектор пуст, но totalHits сохраняется.
+     */
+    public Result drain() {
+        int count = size;
+        while (size > 1) {
+            size--;
+            swap(0, size);
+            siftDown(0, size);
+        }
+        size = 0;
+        int[] resultIds = new int[count];
+        float[] resultScores = new float[count];
+        System.arraycopy(pageIds, 0, resultIds, 0, count);
+        System.arraycopy(scores, 0, resultScores, 0, count);
+        return new Result(resultIds, resultScores, count);
+    }
+
+    private boolean isLower(int leftId, float leftScore, int rightId, float rightScore) {
+        if (leftScore != rightScore) {
+            return leftScore < rightScore;
+        }
+        return leftId > rightId;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!isLower(pageIds[position], scores[position], pageIds[parent], scores[parent])) {
+                break;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position, int heapSize) {
+        while (true) {
+            int left = 2 * position + 1;
+            if (left >= heapSize) {
+                break;
+            }
+            int lowest = left;
+            int right = left + 1;
+            if (right < heapSize && isLower(pageIds[right], scores[right], pageIds[left], scores[left])) {
+                lowest = right;
+            }
+            if (!isLower(pageIds[lowest], scores[lowest], pageIds[position], scores[position])) {
+                break;
+            }
+            swap(position, lowest);
+            position = lowest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = pageIds[i];
+        pageIds[i] = pageIds[j];
+        pageIds[j] = id;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    @Getter
+    public static class Result {
+        private final int[] pageIds;
+        private final float[] scores;
+        private final int size;
+
+        private Result(int[] pageIds, float[] scores, int size) {
+            this.pageIds = pageIds;
+            this.scores = scores;
+            this.size = size;
+        }
+    }
+}
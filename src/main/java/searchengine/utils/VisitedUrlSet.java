@@ -0,0 +1,161 @@
+package searchengine.utils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * В компактном режиме хранятся только 64-битные отпечатки адресов в массиве long
+ * с открытой адресацией: 16-32 байта на адрес вместо строки и узла хеш-таблицы.
+ */
+public class VisitedUrlSet {
+    private final Set<String> urls;
+    private final FingerprintSet fingerprints;
+
+    public VisitedUrlSet(boolean compact) {
+        this.urls = compact ? null : ConcurrentHashMap.newKeySet();
+        this.fingerprints = compact ? new FingerprintSet() : null;
+    }
+
+    public boolean add(String url) {
+        String normalized = normalize(url);
+        return urls != null ? urls.add(normalized) : fingerprints.add(fingerprint(normalized));
+    }
+
+    public int size() {
+        return urls != null ? urls.size() : fingerprints.size();
+    }
+
+    public long[] toFingerprints() {
+        if (fingerprints != null) {
+            return fingerprints.toArray();
+        }
+        return urls.stream().mapToLong(VisitedUrlSet::fingerprint).toArray();
+    }
+
+    public static VisitedUrlSet fromFingerprints(long[] values) {
+        VisitedUrlSet visitedUrls = new VisitedUrlSet(true);
+        for (long value : values) {
+            visitedUrls.fingerprints.add(value);
+        }
+        return visitedUrls;
+    }
+
+    public static String normalize(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase(Locale.ROOT);
+            String host = uri.getHost() == null ? null : uri.getHost().toLowerCase(Locale.ROOT);
+            int port = uri.getPort();
+            if (("http".equals(scheme) && port == 80) || ("https".equals(scheme) && port == 443)) {
+                port = -1;
+            }
+            String path = uri.getRawPath();
+            if (path == null || path.isEmpty()) {
+                path = "/";
+            } else if (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            StringBuilder normalized = new StringBuilder();
+            if (scheme != null) {
+                normalized.append(scheme).append("://");
+            }
+            if (host != null) {
+                normalized.append(host);
+            }
+            if (port != -1) {
+                normalized.append(':').append(port);
+            }
+            normalized.append(path);
+            if (uri.getRawQuery() != null) {
+                normalized.append('?').append(uri.getRawQuery());
+            }
+            return normalized.toString();
+        } catch (URISyntaxException e) {
+            return url.trim();
+        }
+    }
+
+    private static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Множество long с линейным пробированием; 0 обозначает пустую ячейку и хранится отдельным флагом.
+     * Таблица удваивается, когда заполнена наполовину.
+     */
+    private static class FingerprintSet {
+        private long[] table = new long[1024];
+        private int size;
+        private boolean containsZero;
+
+        synchronized boolean add(long value) {
+            if (value == 0) {
+                if (containsZero) {
+                    return false;
+                }
+                containsZero = true;
+                size++;
+                return true;
+            }
+            if (!insert(table, value)) {
+                return false;
+            }
+            size++;
+            if (size * 2 > table.length) {
+                long[] grown = new long[table.length * 2];
+                for (long stored : table) {
+                    if (stored != 0) {
+                        insert(grown, stored);
+                    }
+                }
+                table = grown;
+            }
+            return true;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long[] toArray() {
+            long[] values = new long[size];
+            int count = 0;
+            if (containsZero) {
+                values[count++] = 0;
+            }
+            for (long stored : table) {
+                if (stored != 0) {
+                    values[count++] = stored;
+                }
+            }
+            return count == values.length ? values : Arrays.copyOf(values, count);
+        }
+
+        private static boolean insert(long[] table, long value) {
+            int mask = table.length - 1;
+            int slot = (int) (value ^ (value >>> 32)) & mask;
+            while (table[slot] != 0) {
+                if (table[slot] == value) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = value;
+            return true;
+        }
+    }
+}
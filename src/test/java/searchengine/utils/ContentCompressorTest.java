@@ -0,0 +1,70 @@
+package searchengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentCompressorTest {
+    private static final String TEXT = "<html><body>Поисковый движок. Search engine. ".repeat(200) + "</body></html>";
+
+    @Test
+    void roundTrip() {
+        byte[] compressed = ContentCompressor.compress(TEXT);
+
+        assertEquals(ContentCompressor.FORMAT_DEFLATE, compressed[0]);
+        assertTrue(compressed.length < TEXT.getBytes(StandardCharsets.UTF_8).length / 4);
+        assertEquals(TEXT, ContentCompressor.decompress(compressed));
+    }
+
+    @Test
+    void emptyAndNullValues() {
+        assertEquals("", ContentCompressor.decompress(ContentCompressor.compress("")));
+        assertNull(ContentCompressor.compress(null));
+        assertNull(ContentCompressor.decompress(null));
+    }
+
+    @Test
+    void legacyValuesAreReadAsPlainText() {
+        assertEquals(TEXT, ContentCompressor.decompress(TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("abc", ContentCompressor.decompress("abc".getBytes(StandardCharsets.UTF_8)));
+        assertEquals("", ContentCompressor.decompress(new byte[0]));
+    }
+
+    @Test
+    void truncatedDataIsRejected() {
+        byte[] compressed = ContentCompressor.compress(TEXT);
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+
+        assertThrows(IllegalStateException.class, () -> ContentCompressor.decompress(truncated));
+    }
+
+    @Test
+    void garbageAfterHeaderIsRejected() {
+        byte[] corrupt = ContentCompressor.compress(TEXT);
+        Arrays.fill(corrupt, 5, corrupt.length, (byte) 0xFF);
+
+        assertThrows(IllegalStateException.class, () -> ContentCompressor.decompress(corrupt));
+    }
+
+    @Test
+    void implausibleLengthIsRejected() {
+        byte[] compressed = ContentCompressor.compress(TEXT);
+
+        assertThrows(IllegalStateException.class, () -> ContentCompressor.decompress(withLength(compressed, -1)));
+        assertThrows(IllegalStateException.class,
+                () -> ContentCompressor.decompress(withLength(compressed, Integer.MAX_VALUE)));
+    }
+
+    private static byte[] withLength(byte[] compressed, int length) {
+        byte[] copy = compressed.clone();
+        ByteBuffer.wrap(copy, 1, 4).putInt(length);
+        return copy;
+    }
+}
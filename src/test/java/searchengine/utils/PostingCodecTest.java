@@ -0,0 +1,129 @@
+package searchengine.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PostingCodecTest {
+    private static final int COUNT = PostingCodec.BLOCK_SIZE * 5 + 17;
+
+    @Test
+    void cursorReturnsEveryPostingInOrder() {
+        BlockPostingCursor cursor = cursor(COUNT);
+
+        assertEquals(COUNT, cursor.size());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(pageId(i), cursor.pageId());
+            assertEquals(PostingCodec.dequantize(PostingCodec.quantize(rank(i))), cursor.rank());
+            cursor.next();
+        }
+        assertEquals(PostingCursor.NO_MORE, cursor.pageId());
+        assertEquals(PostingCursor.NO_MORE, cursor.next());
+    }
+
+    @Test
+    void advanceSkipsWholeBlocks() {
+        BlockPostingCursor cursor = cursor(COUNT);
+        int inThirdBlock = PostingCodec.BLOCK_SIZE * 2 + 5;
+
+        assertEquals(pageId(inThirdBlock), cursor.advance(pageId(inThirdBlock)));
+        assertEquals(PostingCodec.dequantize(PostingCodec.quantize(rank(inThirdBlock))), cursor.rank());
+        assertEquals(pageId(inThirdBlock), cursor.advance(pageId(1)));
+        assertEquals(pageId(inThirdBlock + 1), cursor.next());
+    }
+
+    @Test
+    void advanceToMissingIdStopsAtNextPage() {
+        BlockPostingCursor cursor = cursor(COUNT);
+        int lastOfFirstBlock = PostingCodec.BLOCK_SIZE - 1;
+
+        assertEquals(pageId(lastOfFirstBlock), cursor.advance(pageId(lastOfFirstBlock) - 1));
+        assertEquals(pageId(lastOfFirstBlock + 1), cursor.advance(pageId(lastOfFirstBlock) + 1));
+        assertEquals(pageId(COUNT - 1), cursor.advance(pageId(COUNT - 1)));
+        assertEquals(PostingCursor.NO_MORE, cursor.advance(pageId(COUNT - 1) + 1));
+    }
+
+    @Test
+    void advancePastLastBlockEndsCursor() {
+        BlockPostingCursor cursor = cursor(COUNT);
+
+        assertEquals(PostingCursor.NO_MORE, cursor.advance(Integer.MAX_VALUE - 1));
+        assertEquals(PostingCursor.NO_MORE, cursor.next());
+    }
+
+    @Test
+    void emptyListHasNoPostings() {
+        BlockPostingCursor cursor = cursor(0);
+
+        assertEquals(0, cursor.size());
+        assertEquals(PostingCursor.NO_MORE, cursor.pageId());
+        assertEquals(PostingCursor.NO_MORE, cursor.advance(1));
+    }
+
+    @Test
+    void cursorReadsListAtOffset() {
+        byte[] encoded = PostingCodec.encodePostings(postings(3), 3);
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 11);
+        buffer.position(11);
+        buffer.put(encoded);
+
+        BlockPostingCursor cursor = new BlockPostingCursor(buffer, 11);
+
+        assertEquals(pageId(0), cursor.pageId());
+        assertEquals(pageId(2), cursor.advance(pageId(2)));
+    }
+
+    @Test
+    void idsRoundTrip() {
+        int[] ids = {1, 2, 127, 128, 16_384, 2_000_000_000};
+        byte[] encoded = PostingCodec.encodeIds(ids);
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.length + 3);
+        buffer.position(3);
+        buffer.put(encoded);
+
+        assertArrayEquals(ids, PostingCodec.decodeIds(buffer, 3));
+    }
+
+    @Test
+    void positionsRoundTrip() {
+        TermPositions positions = new TermPositions();
+        positions.add(0, 0, 5);
+        positions.add(3, 20, 27);
+        positions.add(400, 70_000, 70_012);
+
+        TermPositions decoded = PostingCodec.decodePositions(PostingCodec.encodePositions(positions));
+
+        assertEquals(positions.size(), decoded.size());
+        for (int i = 0; i < positions.size(); i++) {
+            assertEquals(positions.getPosition(i), decoded.getPosition(i));
+            assertEquals(positions.getStartOffset(i), decoded.getStartOffset(i));
+            assertEquals(positions.getEndOffset(i), decoded.getEndOffset(i));
+        }
+    }
+
+    private static BlockPostingCursor cursor(int count) {
+        return new BlockPostingCursor(ByteBuffer.wrap(PostingCodec.encodePostings(postings(count), count)), 0);
+    }
+
+    private static long[] postings(int count) {
+        long[] postings = new long[count];
+        for (int i = 0; i < count; i++) {
+            postings[i] = PostingCodec.pack(pageId(i), rank(i));
+        }
+        return postings;
+    }
+
+    /**
+     * Шаг между id растет, чтобы разности занимали в vbyte разное число байт.
+     */
+    private static int pageId(int index) {
+        return 1 + index * 3 + index * index;
+    }
+
+    private static float rank(int index) {
+        return (index % 11) * 0.75f + 1;
+    }
+}
@@ -0,0 +1,49 @@
+package searchengine.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import searchengine.model.SiteEntity;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class SiteParserTest {
+    private static final Duration CRAWL_TIMEOUT = Duration.ofSeconds(30);
+
+    private final CrawlPipeline pipeline = new CrawlPipeline(2, 1);
+
+    @AfterEach
+    void shutdownPipeline() {
+        pipeline.shutdownNow();
+    }
+
+    @Test
+    void crawlFinishesWhenRootUrlIsMalformed() {
+        SiteParser siteParser = siteParser("bad url");
+
+        assertTimeoutPreemptively(CRAWL_TIMEOUT, siteParser::crawl);
+        assertNotNull(siteParser.getRootError());
+    }
+
+    @Test
+    void crawlFinishesWhenHarvestedLinkIsMalformed() {
+        SiteParser siteParser = siteParser("http://example.test");
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint(new long[0], List.of(
+                new CrawlFrontier.CrawlTask("bad url", 1),
+                new CrawlFrontier.CrawlTask("another bad url", 2)));
+
+        assertTimeoutPreemptively(CRAWL_TIMEOUT, () -> siteParser.resume(checkpoint));
+        assertNull(siteParser.getRootError());
+    }
+
+    private SiteParser siteParser(String siteUrl) {
+        SiteEntity site = new SiteEntity();
+        site.setUrl(siteUrl);
+        CrawlFrontier frontier = new CrawlFrontier(new VisitedUrlSet(true), 5, 100, 1, 0);
+        return new SiteParser(site, frontier, pipeline, null, null, KnownPages.empty(), null);
+    }
+}
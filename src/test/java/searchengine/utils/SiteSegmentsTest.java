@@ -0,0 +1,203 @@
+package searchengine.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SiteSegmentsTest {
+    private static final int FIRST_LEMMA = 10;
+    private static final int SECOND_LEMMA = 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void segmentRoundTrip() throws IOException {
+        SegmentWriter writer = new SegmentWriter();
+        writer.addPage(7, new int[]{SECOND_LEMMA, FIRST_LEMMA}, new float[]{2, 1},
+                new byte[][]{encodedPositions(4), encodedPositions(1)});
+        writer.addPage(3, new int[]{FIRST_LEMMA}, new float[]{5}, new byte[][]{null});
+        writer.addTombstones(List.of(1, 2));
+        Path file = directory.resolve("segment-1.seg");
+        writer.write(file, 1, 1, 0);
+
+        Segment segment = Segment.open(file);
+
+        assertEquals(1, segment.getFirstGeneration());
+        assertEquals(1, segment.getGeneration());
+        assertEquals(2, segment.getLemmaCount());
+        assertEquals(2, segment.getPageCount());
+        assertArrayEquals(new int[]{1, 2}, segment.getTombstones());
+        assertEquals(List.of(3, 7), pageIds(segment.postings(FIRST_LEMMA)));
+        assertEquals(List.of(7), pageIds(segment.postings(SECOND_LEMMA)));
+        assertEquals(List.of(), pageIds(segment.postings(30)));
+        int page = segment.indexOfPage(7);
+        assertArrayEquals(new int[]{FIRST_LEMMA, SECOND_LEMMA}, segment.lemmaIdsAt(page));
+        assertEquals(4, segment.positionsAt(page, SECOND_LEMMA).getPosition(0));
+        assertEquals(1, segment.positionsAt(page, FIRST_LEMMA).getPosition(0));
+        assertNull(segment.positionsAt(segment.indexOfPage(3), FIRST_LEMMA));
+        assertEquals(-1, segment.indexOfPage(5));
+    }
+
+    @Test
+    void tombstonesHideDeletedAndReplacedPages() throws IOException {
+        SiteSegments siteSegments = new SiteSegments(directory, 100, 2);
+        addPage(siteSegments, 1, 0);
+        addPage(siteSegments, 2, 0);
+        addPage(siteSegments, 3, 0);
+        siteSegments.flush();
+        siteSegments.delete(List.of(1, 2), List.of());
+        addPage(siteSegments, 2, 9);
+        siteSegments.flush();
+
+        assertEquals(List.of(2, 3), pageIds(siteSegments.postings(FIRST_LEMMA)));
+        assertEquals(List.of(FIRST_LEMMA, SECOND_LEMMA), siteSegments.findLemmaIds(List.of(2)));
+        assertEquals(List.of(), siteSegments.findLemmaIds(List.of(1)));
+        assertEquals(9, positionOf(siteSegments, 2));
+    }
+
+    @Test
+    void mergeKeepsLivePagesAndDropsDeletedOnes() throws IOException {
+        SiteSegments siteSegments = new SiteSegments(directory, 100, 2);
+        addPage(siteSegments, 1, 0);
+        addPage(siteSegments, 2, 0);
+        siteSegments.flush();
+        siteSegments.delete(List.of(1, 2), List.of());
+        addPage(siteSegments, 2, 5);
+        addPage(siteSegments, 3, 6);
+        siteSegments.flush();
+
+        siteSegments.mergeSegments(0);
+
+        assertEquals(1, segmentFiles().size());
+        assertEquals(List.of(2, 3), pageIds(siteSegments.postings(FIRST_LEMMA)));
+        assertEquals(5, positionOf(siteSegments, 2));
+        assertEquals(List.of(), siteSegments.findLemmaIds(List.of(1)));
+
+        SiteSegments reopened = new SiteSegments(directory, 100, 2);
+        assertEquals(List.of(2, 3), pageIds(reopened.postings(FIRST_LEMMA)));
+        assertEquals(List.of(2, 3), pageIds(reopened.postings(SECOND_LEMMA)));
+        assertEquals(6, positionOf(reopened, 3));
+        assertEquals(List.of(), reopened.findLemmaIds(List.of(1)));
+    }
+
+    @Test
+    void mergeOfNewerSegmentsKeepsTheirTombstones() throws IOException {
+        SiteSegments siteSegments = new SiteSegments(directory, 1000, 2);
+        // первый сегмент на уровень крупнее, поэтому сливаются только два новых
+        int[] lemmaIds = new int[100];
+        float[] ranks = new float[lemmaIds.length];
+        byte[][] positions = new byte[lemmaIds.length][];
+        for (int i = 0; i < lemmaIds.length; i++) {
+            lemmaIds[i] = FIRST_LEMMA + i;
+            ranks[i] = 1;
+            positions[i] = encodedPositions(i);
+        }
+        for (int pageId = 1; pageId <= 400; pageId++) {
+            siteSegments.add(pageId, lemmaIds, ranks, positions, pageId);
+        }
+        siteSegments.flush();
+        siteSegments.delete(List.of(1), List.of());
+        addPage(siteSegments, 401, 0);
+        siteSegments.flush();
+        siteSegments.delete(List.of(2), List.of());
+        addPage(siteSegments, 402, 0);
+        siteSegments.flush();
+
+        siteSegments.mergeSegments(0);
+
+        assertEquals(List.of(1, 3), segmentGenerations());
+        SiteSegments reopened = new SiteSegments(directory, 100, 2);
+        List<Integer> pageIds = pageIds(reopened.postings(FIRST_LEMMA));
+        assertEquals(400, pageIds.size());
+        assertEquals(3, pageIds.get(0));
+        assertTrue(pageIds.containsAll(List.of(401, 402)));
+    }
+
+    @Test
+    void reopenDeletesSegmentsAlreadyMerged() throws IOException {
+        SiteSegments siteSegments = new SiteSegments(directory, 100, 2);
+        addPage(siteSegments, 1, 0);
+        siteSegments.flush();
+        addPage(siteSegments, 2, 0);
+        siteSegments.flush();
+        Path firstSegment = directory.resolve("segment-1.seg");
+        Path copy = directory.resolve("segment-1.copy");
+        Files.copy(firstSegment, copy);
+        siteSegments.mergeSegments(0);
+        // сбой после записи результата слияния, но до удаления исходного сегмента
+        Files.move(copy, firstSegment);
+
+        SiteSegments reopened = new SiteSegments(directory, 100, 2);
+
+        assertEquals(List.of(2), segmentGenerations());
+        assertEquals(List.of(1, 2), pageIds(reopened.postings(FIRST_LEMMA)));
+    }
+
+    @Test
+    void logIdsAreReleasedOnlyAfterFlush() throws IOException {
+        SiteSegments siteSegments = new SiteSegments(directory, 100, 2);
+        addPage(siteSegments, 1, 0);
+        siteSegments.delete(List.of(5), List.of(7));
+
+        assertEquals(List.of(), siteSegments.takeFlushedLogIds());
+        siteSegments.flush();
+        assertEquals(List.of(1, 7), siteSegments.takeFlushedLogIds());
+        assertEquals(List.of(), siteSegments.takeFlushedLogIds());
+    }
+
+    private static void addPage(SiteSegments siteSegments, int pageId, int position) throws IOException {
+        siteSegments.add(pageId, new int[]{FIRST_LEMMA, SECOND_LEMMA}, new float[]{1, 2},
+                new byte[][]{encodedPositions(position), encodedPositions(position + 1)}, pageId);
+    }
+
+    private static int positionOf(SiteSegments siteSegments, int pageId) {
+        Map<Integer, Map<Integer, TermPositions>> positions =
+                siteSegments.findPositions(List.of(pageId), Set.of(FIRST_LEMMA));
+        return positions.get(pageId).get(FIRST_LEMMA).getPosition(0);
+    }
+
+    private static byte[] encodedPositions(int position) {
+        TermPositions positions = new TermPositions();
+        positions.add(position, position * 10, position * 10 + 4);
+        return PostingCodec.encodePositions(positions);
+    }
+
+    private static List<Integer> pageIds(PostingCursor cursor) {
+        List<Integer> pageIds = new ArrayList<>();
+        for (int pageId = cursor.pageId(); pageId != PostingCursor.NO_MORE; pageId = cursor.next()) {
+            pageIds.add(pageId);
+        }
+        return pageIds;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.seg")) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private List<Integer> segmentGenerations() throws IOException {
+        List<Integer> generations = new ArrayList<>();
+        for (Path file : segmentFiles()) {
+            generations.add(Segment.open(file).getGeneration());
+        }
+        generations.sort(null);
+        return generations;
+    }
+}